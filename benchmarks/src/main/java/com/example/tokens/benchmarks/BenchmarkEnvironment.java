@@ -0,0 +1,308 @@
+package com.example.tokens.benchmarks;
+
+import ch.vorburger.mariadb4j.DB;
+import ch.vorburger.mariadb4j.DBConfigurationBuilder;
+import com.example.tokens.FileStorage;
+import com.example.tokens.MemoryStorage;
+import com.example.tokens.MySQLStorage;
+import com.example.tokens.TokenService;
+import com.example.tokens.TokenStorage;
+import com.example.tokens.TokensPlugin;
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.messaging.Messenger;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// A TokenService on a chosen backend with a stubbed Bukkit server around it, configured from the
+// plugin's default config.yml like a server would be (journal, account filter, pools, log writer).
+// Scheduled tasks only run once a benchmark calls startTimers(), until then the write-behind flush
+// only happens when a benchmark asks for it.
+// Online players are preloaded into the cache; offline players only exist in storage.
+public final class BenchmarkEnvironment {
+    private static final Logger LOGGER = Logger.getLogger("TokensBenchmark");
+    // The thread Bukkit.isPrimaryThread() is true on; none unless a simulation sets one
+    private static volatile Thread mainThread;
+    // Settings worth printing next to the results, they change what a run measures
+    private static final String[] REPORTED = {"Cache.FlushInterval", "Cache.Journal", "Cache.JournalFsync",
+            "Cache.AccountFilter", "Sync.Mode", "Pool.Threads", "Pool.QueueSize", "Pool.Connections",
+            "Log.QueueSize", "Log.BatchSize", "Log.CoalesceWindow"};
+
+    static {
+        // Only warnings from the plugin, JMH output stays readable
+        LOGGER.setLevel(Level.WARNING);
+    }
+
+    public final TokensPlugin plugin;
+    public final TokenService service;
+    public final List<UUID> online = new ArrayList<>();
+    public final List<String> onlineNames = new ArrayList<>();
+    public final List<UUID> offline = new ArrayList<>();
+    public final YamlConfiguration config;
+    public final TokenStorage storage;
+    private final DB database;
+    // False for a second server on another environment's database
+    private final boolean ownsDatabase;
+    private final Path dataDir;
+    private final List<Timer> timers = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService timerThreads;
+
+    private BenchmarkEnvironment(String backend, int players, Map<String, String> settings, BenchmarkEnvironment shared) throws Exception {
+        Server server = mock(Server.class);
+        when(server.getLogger()).thenReturn(LOGGER);
+        when(server.getName()).thenReturn("TokensBenchmark");
+        when(server.getVersion()).thenReturn("benchmark");
+        when(server.getBukkitVersion()).thenReturn("1.8.8-R0.1-SNAPSHOT");
+        BukkitScheduler scheduler = mock(BukkitScheduler.class);
+        when(scheduler.runTaskTimerAsynchronously(any(Plugin.class), any(Runnable.class), anyLong(), anyLong()))
+                .thenAnswer(invocation -> timer(invocation.getArgument(1), invocation.getArgument(2), invocation.getArgument(3)));
+        when(server.getScheduler()).thenReturn(scheduler);
+        when(server.getPluginManager()).thenReturn(mock(PluginManager.class));
+        when(server.getMessenger()).thenReturn(mock(Messenger.class));
+        when(server.isPrimaryThread()).thenAnswer(invocation -> Thread.currentThread() == mainThread);
+        if (Bukkit.getServer() == null) Bukkit.setServer(server);
+
+        plugin = mock(TokensPlugin.class);
+        when(plugin.getLogger()).thenReturn(LOGGER);
+        when(plugin.getServer()).thenReturn(server);
+        when(plugin.isEnabled()).thenReturn(true);
+        when(plugin.getDescription()).thenReturn(new PluginDescriptionFile("TokensPlugin", "benchmark", TokensPlugin.class.getName()));
+
+        // The plugin's defaults with the benchmark's overrides on top
+        try (Reader defaults = new InputStreamReader(TokensPlugin.class.getResourceAsStream("/config.yml"), StandardCharsets.UTF_8)) {
+            config = YamlConfiguration.loadConfiguration(defaults);
+        }
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            config.set(setting.getKey(), parseSetting(setting.getValue()));
+        }
+        config.set("MySQL.Use", backend.equals("mysql"));
+
+        // Stands in for the plugin folder, the journal and the file ledger live here
+        dataDir = Files.createTempDirectory("tokens-bench");
+        DB db = null;
+        switch (backend) {
+            case "memory":
+                storage = new MemoryStorage();
+                break;
+            case "file":
+                storage = new FileStorage(dataDir.resolve("ledger"), config.getLong("File.CompactSize", 8192) * 1024L, LOGGER);
+                break;
+            case "mysql":
+                if (shared != null) {
+                    db = shared.database;
+                } else {
+                    // Random free port, data in a temp directory
+                    db = DB.newEmbeddedDB(DBConfigurationBuilder.newBuilder().setPort(0).build());
+                    db.start();
+                    db.createDB("tokens");
+                }
+                storage = new MySQLStorage("localhost", String.valueOf(db.getConfiguration().getPort()), "tokens", "root", "",
+                        config.getInt("Pool.Connections", 4), config.getInt("MySQL.ConnectTimeout", 5) * 1000,
+                        config.getInt("MySQL.SocketTimeout", 5) * 1000);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown backend " + backend);
+        }
+        database = db;
+        ownsDatabase = shared == null;
+
+        service = new TokenService(plugin, storage);
+        TokensPlugin.configureService(plugin, service, storage, config, dataDir);
+        service.init();
+        service.whenReady().join();
+        when(plugin.getTokenService()).thenReturn(service);
+
+        if (shared != null) {
+            // The same players, already in the shared database
+            online.addAll(shared.online);
+            onlineNames.addAll(shared.onlineNames);
+            offline.addAll(shared.offline);
+            for (int i = 0; i < online.size(); i++) {
+                service.rememberName(onlineNames.get(i), online.get(i));
+            }
+        }
+        for (int i = 0; shared == null && i < players; i++) {
+            UUID uuid = UUID.randomUUID();
+            String name = "Player" + i;
+            storage.applyDelta(uuid, 1_000_000L);
+            service.rememberName(name, uuid);
+            online.add(uuid);
+            onlineNames.add(name);
+
+            UUID away = UUID.randomUUID();
+            storage.applyDelta(away, 1_000_000L);
+            storage.saveName("Offline" + i, away);
+            offline.add(away);
+        }
+        service.preload(online);
+    }
+
+    // backend is memory, file or mysql
+    public static BenchmarkEnvironment start(String backend, int players) throws Exception {
+        return new BenchmarkEnvironment(backend, players, Collections.emptyMap(), null);
+    }
+
+    // settings are config.yml paths and values that replace the plugin's defaults, e.g. Cache.Journal=false
+    public static BenchmarkEnvironment start(String backend, int players, Map<String, String> settings) throws Exception {
+        return new BenchmarkEnvironment(backend, players, settings, null);
+    }
+
+    // A second server on the MySQL database of first, with its own cache and journal and the same
+    // players online. first must use the mysql backend and be closed last, it owns the database
+    public static BenchmarkEnvironment join(BenchmarkEnvironment first, Map<String, String> settings) throws Exception {
+        if (!first.config.getBoolean("MySQL.Use")) throw new IllegalArgumentException("Only the mysql backend can be shared");
+        return new BenchmarkEnvironment("mysql", first.online.size(), settings, first);
+    }
+
+    // Settings from a comma separated list, e.g. "Cache.JournalFsync=false,Sync.Mode=bungee"
+    public static Map<String, String> parseSettings(String list) {
+        Map<String, String> settings = new LinkedHashMap<>();
+        for (String setting : list.split(",")) {
+            int eq = setting.indexOf('=');
+            if (eq > 0) settings.put(setting.substring(0, eq).trim(), setting.substring(eq + 1).trim());
+        }
+        return settings;
+    }
+
+    // The settings that shape what a run measures, for the report
+    public List<String> describeSettings() {
+        List<String> lines = new ArrayList<>();
+        lines.add("MySQL.Use=" + config.getBoolean("MySQL.Use"));
+        for (String path : REPORTED) {
+            lines.add(path + "=" + config.getString(path));
+        }
+        return lines;
+    }
+
+    // Runs the plugin's asynchronous timers (flush, leaderboard, account filter rebuilds, sync polling)
+    // at their configured intervals, like the server scheduler would. Server thread timers never run
+    public synchronized void startTimers() {
+        if (timerThreads != null) return;
+        timerThreads = Executors.newScheduledThreadPool(4, runnable -> {
+            Thread thread = new Thread(runnable, "Simulated-Scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (Timer timer : timers) {
+            timer.schedule(timerThreads);
+        }
+    }
+
+    private synchronized BukkitTask timer(Runnable task, long delayTicks, long periodTicks) {
+        Timer timer = new Timer(task, delayTicks, periodTicks);
+        timers.add(timer);
+        if (timerThreads != null) timer.schedule(timerThreads);
+        return timer;
+    }
+
+    // YAML values keep their type, so getBoolean and getInt see what a config.yml would give them
+    private static Object parseSetting(String value) {
+        if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")) return Boolean.parseBoolean(value);
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return value;
+        }
+    }
+
+    // Make Bukkit.isPrimaryThread() true on this thread, so the service and the metrics treat it
+    // as the server thread
+    public static void setMainThread(Thread thread) {
+        mainThread = thread;
+    }
+
+    public void close() {
+        service.shutdown();
+        synchronized (this) {
+            if (timerThreads != null) timerThreads.shutdownNow();
+        }
+        try {
+            if (database != null && ownsDatabase) database.stop();
+        } catch (Exception e) {
+            LOGGER.warning("Failed to stop the embedded database: " + e.getMessage());
+        }
+        try (Stream<Path> files = Files.walk(dataDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            LOGGER.warning("Failed to delete " + dataDir + ": " + e.getMessage());
+        }
+    }
+
+    // An asynchronous repeating task, scheduled once startTimers() is called
+    private static final class Timer implements BukkitTask {
+        private final Runnable task;
+        private final long delayTicks, periodTicks;
+        private volatile Future<?> future;
+        private volatile boolean cancelled;
+
+        Timer(Runnable task, long delayTicks, long periodTicks) {
+            this.task = task;
+            this.delayTicks = delayTicks;
+            this.periodTicks = periodTicks;
+        }
+
+        synchronized void schedule(ScheduledExecutorService executor) {
+            if (cancelled) return;
+            // A tick is 50ms; like Bukkit, a task that throws keeps its schedule
+            future = executor.scheduleAtFixedRate(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOGGER.warning("Scheduled task failed: " + e);
+                }
+            }, delayTicks * 50L, Math.max(1L, periodTicks) * 50L, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            if (future != null) future.cancel(false);
+        }
+
+        @Override
+        public int getTaskId() {
+            return -1;
+        }
+
+        @Override
+        public Plugin getOwner() {
+            return null;
+        }
+
+        @Override
+        public boolean isSync() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.tokens.benchmarks;
+
+import org.bukkit.Location;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+
+// Plain OfflinePlayer so the measured calls do not pay for mock interception
+final class BenchmarkPlayer implements OfflinePlayer {
+    private final UUID uuid;
+    private final String name;
+
+    BenchmarkPlayer(UUID uuid, String name) {
+        this.uuid = uuid;
+        this.name = name;
+    }
+
+    public UUID getUniqueId() {
+        return uuid;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isOnline() {
+        return false;
+    }
+
+    public boolean isBanned() {
+        return false;
+    }
+
+    public void setBanned(boolean banned) {
+    }
+
+    public boolean isWhitelisted() {
+        return false;
+    }
+
+    public void setWhitelisted(boolean value) {
+    }
+
+    public Player getPlayer() {
+        return null;
+    }
+
+    public long getFirstPlayed() {
+        return 0L;
+    }
+
+    public long getLastPlayed() {
+        return 0L;
+    }
+
+    public boolean hasPlayedBefore() {
+        return true;
+    }
+
+    public Location getBedSpawnLocation() {
+        return null;
+    }
+
+    public boolean isOp() {
+        return false;
+    }
+
+    public void setOp(boolean value) {
+    }
+
+    public Map<String, Object> serialize() {
+        return Collections.emptyMap();
+    }
+}
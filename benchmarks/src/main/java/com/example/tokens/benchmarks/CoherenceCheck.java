@@ -0,0 +1,214 @@
+package com.example.tokens.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Two servers sharing one embedded MariaDB, each with its own cache, journal and invalidation
+// channel, checked for the multi-server guarantees of the tokens table:
+// 1. Both servers change the same cached balances before either flushes. The second flush loses
+//    the compare-and-set and must add its change on top instead of overwriting the first.
+// 2. The server that flushed first must pick up the result through its invalidation channel.
+// 3. A player who leaves one server and joins the other, which still has an old entry cached,
+//    must see what the first server wrote.
+// 4. Writers on both servers hammer the same players while the background flush and polling run;
+//    afterwards the database holds every change exactly once and both caches agree with it.
+// Prints each step and exits with 1 if any balance is off.
+//
+// java -cp target/benchmarks.jar com.example.tokens.benchmarks.CoherenceCheck players=200 duration=10
+public final class CoherenceCheck {
+    private static final long START_BALANCE = 1_000_000L;
+
+    private final int players, threads, durationSeconds, settleSeconds;
+    private final Map<String, String> settings = new HashMap<>();
+    private int failures;
+
+    private CoherenceCheck(Map<String, String> options) {
+        players = intOption(options, "players", 200);
+        threads = intOption(options, "threads", 4);
+        durationSeconds = intOption(options, "duration", 10);
+        settleSeconds = intOption(options, "settle", 15);
+        // Polling needs no players online to carry messages, and a short interval keeps the check quick
+        settings.put("Sync.Mode", "polling");
+        settings.put("Sync.PollInterval", "1");
+        settings.put("Cache.FlushInterval", "1");
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            if (option.getKey().indexOf('.') > 0) settings.put(option.getKey(), option.getValue());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                System.err.println("Options are key=value, e.g. players=200 threads=4 duration=10 Sync.Mode=polling");
+                System.exit(1);
+            }
+            // config.yml paths keep their case
+            String key = arg.substring(0, eq);
+            options.put(key.indexOf('.') > 0 ? key : key.toLowerCase(Locale.ROOT), arg.substring(eq + 1));
+        }
+        boolean passed = new CoherenceCheck(options).run();
+        System.exit(passed ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        System.out.println("Starting two servers on one database with " + players + " players...");
+        BenchmarkEnvironment first = BenchmarkEnvironment.start("mysql", players, settings);
+        BenchmarkEnvironment second = null;
+        try {
+            second = BenchmarkEnvironment.join(first, settings);
+            for (String line : first.describeSettings()) {
+                System.out.println("  " + line);
+            }
+            concurrentWrites(first, second);
+            invalidation(first, second);
+            switchServers(first, second);
+            contention(first, second);
+        } finally {
+            if (second != null) second.close();
+            first.close();
+        }
+        System.out.println(failures == 0 ? "All checks passed." : failures + " check(s) failed.");
+        return failures == 0;
+    }
+
+    // Both servers change every balance from the same cached version, then flush one after the other
+    private void concurrentWrites(BenchmarkEnvironment first, BenchmarkEnvironment second) throws Exception {
+        for (UUID uuid : first.online) {
+            first.service.addSync(uuid, 100, "coherence");
+            second.service.addSync(uuid, 250, "coherence");
+        }
+        first.service.flushDirty();
+        second.service.flushDirty();
+        int lost = 0, stale = 0;
+        for (UUID uuid : first.online) {
+            if (first.storage.load(uuid) != START_BALANCE + 350) lost++;
+            if (second.service.getCachedBalance(uuid) != START_BALANCE + 350) stale++;
+        }
+        check("compare-and-set keeps both servers' changes", lost == 0, lost + " stored balances lost a change");
+        check("losing flush takes over the stored balance", stale == 0, stale + " cached balances on the second server are stale");
+    }
+
+    // The first server flushed before the second and still caches its own result until polled
+    private void invalidation(BenchmarkEnvironment first, BenchmarkEnvironment second) throws Exception {
+        first.startTimers();
+        second.startTimers();
+        long start = System.nanoTime();
+        int stale = awaitCoherent(first, second);
+        check("invalidation refreshes the other server", stale == 0,
+                stale + " cached balances still differ from the database after " + settleSeconds + "s");
+        if (stale == 0) {
+            System.out.println(String.format(Locale.ROOT, "  caches agreed after %.1fs", (System.nanoTime() - start) / 1e9));
+        }
+    }
+
+    // A player quits on the second server, plays on the first, then comes back to the second before
+    // its old entry was dropped
+    private void switchServers(BenchmarkEnvironment first, BenchmarkEnvironment second) throws Exception {
+        UUID uuid = first.online.get(0);
+        String name = first.onlineNames.get(0);
+        second.service.unload(uuid, name);
+        long expected = first.service.addSync(uuid, 500, "coherence");
+        first.service.flushDirty();
+
+        second.service.loggingIn(uuid);
+        second.service.preload(uuid);
+        second.service.joined(uuid);
+        long seen = second.service.getBalanceSync(uuid);
+        check("player switching servers sees the newest balance", seen == expected,
+                "expected " + expected + " on the second server, got " + seen);
+    }
+
+    // Random deposits and withdrawals on both servers at once while the timers flush and poll
+    private void contention(BenchmarkEnvironment first, BenchmarkEnvironment second) throws Exception {
+        long[] before = new long[players];
+        for (int i = 0; i < players; i++) {
+            before[i] = first.storage.load(first.online.get(i));
+        }
+        AtomicLongArray applied = new AtomicLongArray(players);
+        LongAdder writes = new LongAdder();
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch done = new CountDownLatch(threads * 2);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads * 2; t++) {
+            BenchmarkEnvironment server = t % 2 == 0 ? first : second;
+            Random random = new Random(t);
+            Thread writer = new Thread(() -> {
+                try {
+                    while (running.get()) {
+                        int i = random.nextInt(players);
+                        long delta = random.nextInt(41) - 20;
+                        if (delta == 0) continue;
+                        // Deposits and withdrawals both; balances are far from zero, so -1 means a failure
+                        if (server.service.addSync(server.online.get(i), delta, "coherence") >= 0) {
+                            applied.addAndGet(i, delta);
+                            writes.increment();
+                        }
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }, "Coherence-Writer-" + t);
+            writer.setDaemon(true);
+            writers.add(writer);
+        }
+        System.out.println("Writing from " + writers.size() + " threads on both servers for " + durationSeconds + "s...");
+        for (Thread writer : writers) {
+            writer.start();
+        }
+        Thread.sleep(durationSeconds * 1000L);
+        running.set(false);
+        done.await();
+        first.service.flushDirty();
+        second.service.flushDirty();
+
+        int lost = 0;
+        for (int i = 0; i < players; i++) {
+            long stored = first.storage.load(first.online.get(i));
+            if (stored != before[i] + applied.get(i)) lost++;
+        }
+        check("no change lost or applied twice under contention", lost == 0, lost + " of " + players + " stored balances are off");
+        int stale = awaitCoherent(first, second);
+        check("both caches agree with the database afterwards", stale == 0,
+                stale + " cached balances still differ from the database after " + settleSeconds + "s");
+        System.out.println("  " + writes.sum() + " balance changes");
+    }
+
+    // Waits until every cached balance on both servers matches the database; the number that do not
+    // when time runs out
+    private int awaitCoherent(BenchmarkEnvironment first, BenchmarkEnvironment second) throws Exception {
+        long deadline = System.nanoTime() + settleSeconds * 1_000_000_000L;
+        while (true) {
+            int stale = 0;
+            for (UUID uuid : first.online) {
+                long stored = first.storage.load(uuid);
+                for (BenchmarkEnvironment server : new BenchmarkEnvironment[]{first, second}) {
+                    long cached = server.service.getCachedBalance(uuid);
+                    if (cached >= 0 && cached != stored) stale++;
+                }
+            }
+            if (stale == 0 || System.nanoTime() > deadline) return stale;
+            Thread.sleep(200L);
+        }
+    }
+
+    private void check(String name, boolean passed, String detail) {
+        System.out.println((passed ? "PASS " : "FAIL ") + name + (passed ? "" : ": " + detail));
+        if (!passed) failures++;
+    }
+
+    private static int intOption(Map<String, String> options, String key, int fallback) {
+        String value = options.get(key);
+        return value == null ? fallback : Integer.parseInt(value);
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.tokens.benchmarks;
+
+import com.example.tokens.TokenService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+// formatNumber against the NumberFormat it replaced
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatNumberBenchmark {
+    @Param({"42", "1234567", "9223372036854775807"})
+    public long value;
+
+    private BenchmarkEnvironment env;
+    private TokenService service;
+    private NumberFormat numberFormat;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        env = BenchmarkEnvironment.start("memory", 0);
+        service = env.service;
+        numberFormat = NumberFormat.getInstance(Locale.US);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        env.close();
+    }
+
+    @Benchmark
+    public String formatNumber() {
+        return service.formatNumber(value);
+    }
+
+    @Benchmark
+    public String numberFormatBaseline() {
+        return numberFormat.format(value);
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.tokens.benchmarks;
+
+import com.example.tokens.TokenEconomyApi;
+import com.example.tokens.TokenEconomyProvider;
+import com.example.tokens.TokenMetrics;
+import com.example.tokens.TokenPlaceholderExpansion;
+import com.example.tokens.VaultEco;
+import org.bukkit.OfflinePlayer;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Headless BedWars economy traffic against VaultEco and TokenService, for capacity planning.
+// A simulated server thread ticks at 20 TPS and, for every running arena, pays kill rewards and
+// takes shop purchases; scoreboards render the balance placeholder for every online player,
+// lobby plugins check the balances of offline players and of visitors who never had tokens, and
+// every arena pays out its players when its match ends. With sync-ends=true all arenas start and
+// end together, the worst case for end-of-match payouts. The service is configured from the
+// plugin's default config.yml, and options with a dot (Cache.Journal=false, Sync.Mode=bungee)
+// override it; its background timers run at their configured intervals. Reports throughput, p50/p99 per operation, time spent on the server
+// thread and late ticks, followed by the plugin's own /tokens stats.
+//
+// java -cp target/benchmarks.jar com.example.tokens.benchmarks.LoadSimulator backend=mysql arenas=40 sync-ends=true
+public final class LoadSimulator {
+    private static final long TICK_NANOS = 50_000_000L;
+    private static final int TICKS_PER_SECOND = 20;
+
+    private final String backend;
+    private final int arenas, arenaSize, lobbyPlayers;
+    private final int matchSeconds, durationSeconds, warmupSeconds;
+    private final double killsPerMinute, purchasesPerMinute, lobbyChecksPerSecond, visitorChecksPerSecond;
+    private final int scoreboardTicks;
+    private final boolean batchPayouts, syncEnds;
+    private final long killReward, shopPrice, winReward;
+    private final Random random;
+    private final Map<String, String> settings = new HashMap<>();
+
+    private final TokenMetrics metrics = new TokenMetrics();
+    private final TokenMetrics.Timer tickTimer = metrics.timer("sim.tick");
+    private final TokenMetrics.Timer killTimer = metrics.timer("sim.killReward");
+    private final TokenMetrics.Timer shopTimer = metrics.timer("sim.shopWithdraw");
+    private final TokenMetrics.Timer placeholderTimer = metrics.timer("sim.placeholder");
+    private final TokenMetrics.Timer lobbyTimer = metrics.timer("sim.lobbyHas");
+    private final TokenMetrics.Timer visitorTimer = metrics.timer("sim.visitorBalance");
+    private final TokenMetrics.Timer payoutTimer = metrics.timer("sim.matchPayout");
+    private final TokenMetrics.Timer payoutDoneTimer = metrics.timer("sim.matchPayoutCompleted");
+    private long lateTicks;
+
+    private LoadSimulator(Map<String, String> options) {
+        backend = options.getOrDefault("backend", "mysql");
+        arenas = intOption(options, "arenas", 40);
+        arenaSize = intOption(options, "arena-size", 16);
+        lobbyPlayers = intOption(options, "lobby-players", 500);
+        matchSeconds = intOption(options, "match-seconds", 30);
+        durationSeconds = intOption(options, "duration", 60);
+        warmupSeconds = intOption(options, "warmup", 10);
+        if (options.containsKey("flush-seconds")) settings.put("Cache.FlushInterval", options.get("flush-seconds"));
+        killsPerMinute = doubleOption(options, "kills-per-minute", 2.0);
+        purchasesPerMinute = doubleOption(options, "purchases-per-minute", 6.0);
+        scoreboardTicks = Math.max(1, intOption(options, "scoreboard-ticks", 20));
+        lobbyChecksPerSecond = doubleOption(options, "lobby-checks", 50.0);
+        visitorChecksPerSecond = doubleOption(options, "visitor-checks", 20.0);
+        batchPayouts = options.getOrDefault("payout", "vault").equalsIgnoreCase("batch");
+        syncEnds = Boolean.parseBoolean(options.getOrDefault("sync-ends", "false"));
+        killReward = intOption(options, "kill-reward", 5);
+        shopPrice = intOption(options, "shop-price", 20);
+        winReward = intOption(options, "win-reward", 100);
+        random = new Random(intOption(options, "seed", 1));
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            if (option.getKey().indexOf('.') > 0) settings.put(option.getKey(), option.getValue());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                System.err.println("Options are key=value, e.g. backend=mysql arenas=40 arena-size=16 duration=60 sync-ends=true payout=batch");
+                System.exit(1);
+            }
+            // config.yml paths keep their case
+            String key = arg.substring(0, eq);
+            options.put(key.indexOf('.') > 0 ? key : key.toLowerCase(Locale.ROOT), arg.substring(eq + 1));
+        }
+        new LoadSimulator(options).run();
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        int players = arenas * arenaSize + lobbyPlayers;
+        System.out.println("Starting " + backend + " storage with " + players + " online and " + players + " offline players...");
+        BenchmarkEnvironment env = BenchmarkEnvironment.start(backend, players, settings);
+        try {
+            VaultEco eco = new VaultEco(env.service, "Token");
+            TokenEconomyApi api = new TokenEconomyProvider(env.plugin, env.service);
+            TokenPlaceholderExpansion expansion = new TokenPlaceholderExpansion(env.plugin);
+            OfflinePlayer[] online = new OfflinePlayer[players];
+            OfflinePlayer[] offline = new OfflinePlayer[players];
+            for (int i = 0; i < players; i++) {
+                online[i] = new BenchmarkPlayer(env.online.get(i), env.onlineNames.get(i));
+                offline[i] = new BenchmarkPlayer(env.offline.get(i), "Offline" + i);
+            }
+            env.startTimers();
+
+            // Arena a holds online players a * arenaSize up to (a + 1) * arenaSize, the rest wait in the lobby
+            int matchTicks = Math.max(1, matchSeconds) * TICKS_PER_SECOND;
+            int[] endTick = new int[arenas];
+            for (int a = 0; a < arenas; a++) {
+                endTick[a] = syncEnds ? matchTicks : 1 + random.nextInt(matchTicks);
+            }
+
+            BenchmarkEnvironment.setMainThread(Thread.currentThread());
+            int warmupTicks = warmupSeconds * TICKS_PER_SECOND;
+            int totalTicks = warmupTicks + durationSeconds * TICKS_PER_SECOND;
+            System.out.println("Warming up for " + warmupSeconds + "s, then measuring for " + durationSeconds + "s...");
+            long measureStart = System.nanoTime();
+            long next = System.nanoTime();
+            int scoreboardCursor = 0;
+            for (int tick = 1; tick <= totalTicks; tick++) {
+                if (tick == warmupTicks + 1) {
+                    metrics.reset();
+                    env.service.getMetrics().reset();
+                    lateTicks = 0;
+                    measureStart = System.nanoTime();
+                }
+                long tickStart = System.nanoTime();
+                for (int a = 0; a < arenas; a++) {
+                    int first = a * arenaSize;
+                    for (int k = events(arenaSize * killsPerMinute / 60.0); k > 0; k--) {
+                        OfflinePlayer killer = online[first + random.nextInt(arenaSize)];
+                        long start = System.nanoTime();
+                        eco.depositPlayer(killer, killReward);
+                        killTimer.record(start);
+                    }
+                    for (int k = events(arenaSize * purchasesPerMinute / 60.0); k > 0; k--) {
+                        OfflinePlayer buyer = online[first + random.nextInt(arenaSize)];
+                        long start = System.nanoTime();
+                        eco.withdrawPlayer(buyer, shopPrice);
+                        shopTimer.record(start);
+                    }
+                    if (tick == endTick[a]) {
+                        payout(eco, api, online, first);
+                        endTick[a] = tick + matchTicks;
+                    }
+                }
+                // Every scoreboard refreshes once per scoreboardTicks, spread over those ticks
+                int renders = (players + scoreboardTicks - 1) / scoreboardTicks;
+                for (int r = 0; r < renders; r++) {
+                    OfflinePlayer viewer = online[scoreboardCursor];
+                    if (++scoreboardCursor >= players) scoreboardCursor = 0;
+                    long start = System.nanoTime();
+                    expansion.onRequest(viewer, "eco_balance_formatted");
+                    placeholderTimer.record(start);
+                }
+                for (int k = events(lobbyChecksPerSecond); k > 0; k--) {
+                    long start = System.nanoTime();
+                    eco.has(offline[random.nextInt(players)], shopPrice);
+                    lobbyTimer.record(start);
+                }
+                for (int k = events(visitorChecksPerSecond); k > 0; k--) {
+                    long start = System.nanoTime();
+                    eco.getBalance(new BenchmarkPlayer(new UUID(random.nextLong(), random.nextLong()), "Visitor"));
+                    visitorTimer.record(start);
+                }
+                tickTimer.record(tickStart);
+
+                next += TICK_NANOS;
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } else {
+                    // Like the server, a late tick is not made up for by running the next ones faster
+                    lateTicks++;
+                    next = System.nanoTime();
+                }
+            }
+            report(env, (System.nanoTime() - measureStart) / 1e9);
+        } finally {
+            BenchmarkEnvironment.setMainThread(null);
+            env.close();
+        }
+    }
+
+    // Winners get the win reward: one Vault deposit per player, or one batch through the async API
+    private void payout(VaultEco eco, TokenEconomyApi api, OfflinePlayer[] online, int first) {
+        long start = System.nanoTime();
+        if (batchPayouts) {
+            Map<UUID, Long> amounts = new HashMap<>();
+            for (int i = first; i < first + arenaSize; i++) {
+                amounts.put(online[i].getUniqueId(), winReward);
+            }
+            api.depositAllAsync(amounts, "Match win").whenComplete((balances, error) -> payoutDoneTimer.record(start));
+        } else {
+            for (int i = first; i < first + arenaSize; i++) {
+                eco.depositPlayer(online[i], winReward);
+            }
+            payoutDoneTimer.record(start);
+        }
+        payoutTimer.record(start);
+    }
+
+    // Number of events this tick for a rate per second: the whole part, plus one more by chance
+    private int events(double perSecond) {
+        double perTick = perSecond / TICKS_PER_SECOND;
+        int whole = (int) perTick;
+        return whole + (random.nextDouble() < perTick - whole ? 1 : 0);
+    }
+
+    private void report(BenchmarkEnvironment env, double seconds) {
+        long ticks = tickTimer.getCount();
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "Measured %.1fs: %d ticks (%.2f TPS), %d late, tick p50 %.3fms p99 %.3fms max %.3fms, server thread busy %.1f%%",
+                seconds, ticks, ticks / seconds, lateTicks, tickTimer.getPercentileMillis(0.5), tickTimer.getPercentileMillis(0.99),
+                tickTimer.getMaxMillis(), tickTimer.getPrimaryMillis() / (seconds * 10.0)));
+        TokenMetrics.Timer[] operations = {killTimer, shopTimer, placeholderTimer, lobbyTimer, visitorTimer, payoutTimer, payoutDoneTimer};
+        String[] names = {"kill rewards", "shop withdrawals", "placeholder renders", "lobby has() checks", "visitor balance checks",
+                "match payouts (server thread)", "match payouts (completed)"};
+        for (int i = 0; i < operations.length; i++) {
+            TokenMetrics.Timer timer = operations[i];
+            if (timer.getCount() == 0) continue;
+            System.out.println(String.format(Locale.ROOT, "%-30s %9d ops %10.1f ops/s  p50 %8.3fms  p99 %8.3fms  max %8.3fms  server thread %.1fms",
+                    names[i], timer.getCount(), timer.getCount() / seconds, timer.getPercentileMillis(0.5),
+                    timer.getPercentileMillis(0.99), timer.getMaxMillis(), timer.getPrimaryMillis()));
+        }
+        System.out.println();
+        System.out.println("Settings:");
+        for (String line : env.describeSettings()) {
+            System.out.println("  " + line);
+        }
+        System.out.println();
+        System.out.println("Plugin stats:");
+        for (String line : env.service.getMetrics().describe()) {
+            System.out.println("  " + line);
+        }
+    }
+
+    private static int intOption(Map<String, String> options, String key, int fallback) {
+        String value = options.get(key);
+        return value == null ? fallback : Integer.parseInt(value);
+    }
+
+    private static double doubleOption(Map<String, String> options, String key, double fallback) {
+        String value = options.get(key);
+        return value == null ? fallback : Double.parseDouble(value);
+    }
+}
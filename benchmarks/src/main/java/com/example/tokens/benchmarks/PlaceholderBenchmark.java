@@ -0,0 +1,74 @@
+package com.example.tokens.benchmarks;
+
+import com.example.tokens.TokenPlaceholderExpansion;
+import org.bukkit.OfflinePlayer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Scoreboards render these placeholders for every player many times a second
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlaceholderBenchmark {
+    @Param({"memory"})
+    public String backend;
+
+    @Param("1000")
+    public int players;
+
+    private BenchmarkEnvironment env;
+    private TokenPlaceholderExpansion expansion;
+    private OfflinePlayer player;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        env = BenchmarkEnvironment.start(backend, players);
+        expansion = new TokenPlaceholderExpansion(env.plugin);
+        env.service.reloadLeaderboard();
+        player = new BenchmarkPlayer(env.online.get(0), env.onlineNames.get(0));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        env.close();
+    }
+
+    // Balance unchanged since the last render
+    @Benchmark
+    public String balanceCached() {
+        return expansion.onRequest(player, "eco_balance");
+    }
+
+    // Balance changed, so the render cache has to format it again
+    @Benchmark
+    public String balanceAfterChange() {
+        env.service.addSync(player.getUniqueId(), 1, "benchmark");
+        return expansion.onRequest(player, "eco_balance");
+    }
+
+    @Benchmark
+    public String topName() {
+        return expansion.onRequest(player, "eco_top_3_name");
+    }
+
+    @Benchmark
+    public String topBalance() {
+        return expansion.onRequest(player, "eco_top_3_balance");
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.tokens.benchmarks;
+
+import com.example.tokens.VaultEco;
+import net.milkbowl.vault.economy.EconomyResponse;
+import org.bukkit.OfflinePlayer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// The Vault entry points other plugins call, for players that are online (cached) and offline (storage)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VaultEcoBenchmark {
+    @Param({"memory", "file", "mysql"})
+    public String backend;
+
+    @Param("1000")
+    public int players;
+
+    // config.yml overrides, e.g. -p settings=Cache.JournalFsync=false,Sync.Mode=bungee
+    @Param("")
+    public String settings;
+
+    private BenchmarkEnvironment env;
+    private VaultEco eco;
+    private OfflinePlayer[] online;
+    private OfflinePlayer[] offline;
+    private String[] onlineNames;
+
+    // Each thread walks through the players on its own
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int position;
+
+        int next(int length) {
+            if (++position >= length) position = 0;
+            return position;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        env = BenchmarkEnvironment.start(backend, players, BenchmarkEnvironment.parseSettings(settings));
+        // Flushes and journal rotation run in the background like on a server
+        env.startTimers();
+        eco = new VaultEco(env.service, "Token");
+        online = new OfflinePlayer[players];
+        offline = new OfflinePlayer[players];
+        onlineNames = new String[players];
+        for (int i = 0; i < players; i++) {
+            online[i] = new BenchmarkPlayer(env.online.get(i), env.onlineNames.get(i));
+            offline[i] = new BenchmarkPlayer(env.offline.get(i), "Offline" + i);
+            onlineNames[i] = env.onlineNames.get(i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        env.close();
+    }
+
+    @Benchmark
+    public boolean hasOnline(Cursor cursor) {
+        return eco.has(online[cursor.next(players)], 10);
+    }
+
+    @Benchmark
+    public boolean hasByName(Cursor cursor) {
+        return eco.has(onlineNames[cursor.next(players)], 10);
+    }
+
+    @Benchmark
+    public double getBalanceOnline(Cursor cursor) {
+        return eco.getBalance(online[cursor.next(players)]);
+    }
+
+    @Benchmark
+    public double getBalanceOffline(Cursor cursor) {
+        return eco.getBalance(offline[cursor.next(players)]);
+    }
+
+    @Benchmark
+    public EconomyResponse withdrawOnline(Cursor cursor) {
+        return eco.withdrawPlayer(online[cursor.next(players)], 1);
+    }
+
+    @Benchmark
+    public EconomyResponse withdrawOffline(Cursor cursor) {
+        return eco.withdrawPlayer(offline[cursor.next(players)], 1);
+    }
+
+    @Benchmark
+    public EconomyResponse depositOnline(Cursor cursor) {
+        return eco.depositPlayer(online[cursor.next(players)], 1);
+    }
+
+    @Benchmark
+    public EconomyResponse depositOffline(Cursor cursor) {
+        return eco.depositPlayer(offline[cursor.next(players)], 1);
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.tokens;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Which players have a token account, so lookups for players who never had one (most lobby
+// visitors) are answered without asking the database. A Bloom filter: "no" is always right,
+// "maybe" is wrong for about 1% of players without an account, who are then looked up as before.
+// Built from a scan of storage and told about every account created afterwards; while a rebuild
+// is running new accounts go into both filters. Accounts added since the last build are also kept
+// aside and replayed into the next one before it is swapped in, since the scan may have passed
+// them before they were written.
+public class AccountFilter {
+    private static final int HASHES = 7;
+    // About 1% false positives at this many bits per account
+    private static final int BITS_PER_ACCOUNT = 10;
+    private static final int MIN_CAPACITY = 1024;
+
+    private static final class Bits {
+        final AtomicLongArray words;
+        final long size;
+        final long capacity;
+
+        Bits(long capacity) {
+            this.capacity = capacity;
+            int words = (int) Math.min(Integer.MAX_VALUE - 8, (capacity * BITS_PER_ACCOUNT + 63) / 64);
+            this.words = new AtomicLongArray(words);
+            this.size = words * 64L;
+        }
+
+        void add(UUID uuid) {
+            long h1 = mix(uuid.getMostSignificantBits() ^ uuid.getLeastSignificantBits());
+            long h2 = mix(uuid.getLeastSignificantBits() + 0x9E3779B97F4A7C15L) | 1L;
+            for (int i = 0; i < HASHES; i++) {
+                long bit = Long.remainderUnsigned(h1 + i * h2, size);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long current;
+                while (((current = words.get(word)) & mask) == 0L && !words.compareAndSet(word, current, current | mask)) {
+                    // Lost a race with another bit of the same word, try again
+                }
+            }
+        }
+
+        boolean mightContain(UUID uuid) {
+            long h1 = mix(uuid.getMostSignificantBits() ^ uuid.getLeastSignificantBits());
+            long h2 = mix(uuid.getLeastSignificantBits() + 0x9E3779B97F4A7C15L) | 1L;
+            for (int i = 0; i < HASHES; i++) {
+                long bit = Long.remainderUnsigned(h1 + i * h2, size);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0L) return false;
+            }
+            return true;
+        }
+
+        // Random UUIDs already are well mixed, others (offline mode) are not
+        private static long mix(long x) {
+            x = (x ^ (x >>> 33)) * 0xFF51AFD7ED558CCDL;
+            x = (x ^ (x >>> 33)) * 0xC4CEB9FE1A85EC53L;
+            return x ^ (x >>> 33);
+        }
+    }
+
+    private volatile Bits current;
+    private volatile Bits building;
+    private final LongAdder added = new LongAdder();
+    // New accounts since the last build finished
+    private final AtomicReference<Set<UUID>> recent = new AtomicReference<>(ConcurrentHashMap.newKeySet());
+
+    // False until the first build finished; until then every player might have an account
+    public boolean isBuilt() {
+        return current != null;
+    }
+
+    // Only false for players that certainly have no account
+    public boolean mightContain(UUID uuid) {
+        Bits bits = current;
+        return bits == null || bits.mightContain(uuid);
+    }
+
+    // Remember a new account; call before it is written so no reader can miss it
+    public void add(UUID uuid) {
+        Bits target = building;
+        Bits bits = current;
+        if (target != null || bits == null || !bits.mightContain(uuid)) recent.get().add(uuid);
+        if (target != null) target.add(uuid);
+        target = current;
+        if (target != null && !target.mightContain(uuid)) {
+            target.add(uuid);
+            added.increment();
+        }
+    }
+
+    // True once more accounts were added since the last build than it left room for, so its
+    // false positive rate has gone up and it should be rebuilt
+    public boolean isOverfull() {
+        Bits bits = current;
+        return bits != null && added.sum() > bits.capacity / 2;
+    }
+
+    // Start a rebuild sized for the given number of accounts plus room to grow. Feed every
+    // existing account to the returned sink, then call finishBuild()
+    public synchronized Consumer<UUID> startBuild(long expectedAccounts) {
+        Bits bits = new Bits(Math.max(MIN_CAPACITY, expectedAccounts * 2));
+        building = bits;
+        return bits::add;
+    }
+
+    public synchronized void finishBuild() {
+        Bits bits = building;
+        if (bits == null) return;
+        // Accounts added from here on go into the new set and, while it is still set, into building
+        for (UUID uuid : recent.getAndSet(ConcurrentHashMap.newKeySet())) {
+            bits.add(uuid);
+        }
+        current = bits;
+        building = null;
+        added.reset();
+    }
+
+    // A failed scan leaves the previous filter in place
+    public synchronized void abortBuild() {
+        building = null;
+    }
+
+    // Approximate memory held, for /tokens stats
+    public long sizeBytes() {
+        Bits bits = current;
+        return bits == null ? 0L : bits.size / 8;
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.tokens;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+// In-memory balances for online players. Reads are served straight from here,
+// writes are applied right away and the difference to what is stored in the
+// database is kept as a pending delta until TokenService flushes it. Each entry also remembers
+// the row version its balance is based on, so changes made by other servers can be detected.
+public class BalanceCache {
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+
+    public static final class Entry {
+        private long balance;
+        private long pendingDelta;
+        // Taken by a flush that is still writing it, put back if that write fails
+        private long inFlight;
+        private long version;
+        // Journal seq of the last change made to this entry, and of the last one written to storage
+        private long journalSeq;
+        private long flushedSeq;
+        private boolean offline;
+        private boolean evicted;
+        // Held while talking to storage about this entry, so a flush and a refresh never overlap
+        final Object io = new Object();
+
+        private Entry(long balance, long version) {
+            this.balance = balance;
+            this.version = version;
+        }
+
+        public synchronized long getBalance() {
+            return balance;
+        }
+
+        // Returns false once the entry has been dropped from the cache, callers then go to the database
+        public synchronized boolean isLive() {
+            return !evicted;
+        }
+
+        // Set the balance and remember the change for the next flush
+        synchronized void apply(long newBalance) {
+            pendingDelta += newBalance - balance;
+            balance = newBalance;
+        }
+
+        synchronized long takePendingDelta() {
+            long delta = pendingDelta;
+            pendingDelta = 0L;
+            inFlight += delta;
+            return delta;
+        }
+
+        // Put a delta back after a failed flush so it is retried next time
+        synchronized void restorePendingDelta(long delta) {
+            pendingDelta += delta;
+            inFlight -= delta;
+        }
+
+        // Also true while journaled changes that cancelled out are not marked flushed
+        synchronized boolean isDirty() {
+            return pendingDelta != 0L || journalSeq > flushedSeq;
+        }
+
+        public synchronized long getVersion() {
+            return version;
+        }
+
+        synchronized void setVersion(long version) {
+            this.version = version;
+        }
+
+        synchronized long getJournalSeq() {
+            return journalSeq;
+        }
+
+        synchronized void setJournalSeq(long seq) {
+            journalSeq = seq;
+        }
+
+        // Everything journaled up to seq is in storage now, including what the flush took
+        synchronized void markFlushed(long seq) {
+            flushedSeq = Math.max(flushedSeq, seq);
+            inFlight = 0L;
+        }
+
+        // Take over a stored balance written by someone else, keeping the changes not flushed yet.
+        // Returns the balance before
+        synchronized long rebase(long storedBalance, long storedVersion) {
+            long before = balance;
+            balance = Math.max(0L, storedBalance + pendingDelta);
+            version = storedVersion;
+            return before;
+        }
+    }
+
+    public Entry get(UUID uuid) {
+        Entry entry = entries.get(uuid);
+        return entry != null && entry.isLive() ? entry : null;
+    }
+
+    // Store a freshly loaded balance. An entry that is still cached (quick relog) is kept since it
+    // may hold writes that were not flushed yet; it takes over the loaded row if that is newer.
+    public Entry load(UUID uuid, long balance, long version) {
+        return entries.compute(uuid, (key, existing) -> {
+            if (existing != null) {
+                synchronized (existing) {
+                    if (!existing.evicted) {
+                        existing.offline = false;
+                        if (version > existing.version) existing.rebase(balance, version);
+                        return existing;
+                    }
+                }
+            }
+            return new Entry(balance, version);
+        });
+    }
+
+    public boolean contains(UUID uuid) {
+        return get(uuid) != null;
+    }
+
+    // Mark the player as gone; the entry is removed by the next flush once nothing is pending
+    public void markOffline(UUID uuid) {
+        Entry entry = entries.get(uuid);
+        if (entry != null) {
+            synchronized (entry) {
+                entry.offline = true;
+            }
+        }
+    }
+
+    // Player is back before the entry was dropped; false if there is no entry to keep
+    public boolean markOnline(UUID uuid) {
+        Entry entry = entries.get(uuid);
+        if (entry == null) return false;
+        synchronized (entry) {
+            entry.offline = false;
+            return !entry.evicted;
+        }
+    }
+
+    // Drop entries of players that left and have nothing left to write. Holds entry.io, so an entry
+    // is never dropped while a flush is writing it and could still have to put its delta back
+    public void evictOffline() {
+        for (Map.Entry<UUID, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            synchronized (entry) {
+                if (!entry.offline) continue;
+            }
+            synchronized (entry.io) {
+                synchronized (entry) {
+                    if (entry.offline && !entry.isDirty() && entry.inFlight == 0L) {
+                        entry.evicted = true;
+                        entries.remove(e.getKey(), entry);
+                    }
+                }
+            }
+        }
+    }
+
+    public List<UUID> dirtyKeys() {
+        List<UUID> dirty = new ArrayList<>();
+        for (Map.Entry<UUID, Entry> e : entries.entrySet()) {
+            if (e.getValue().isDirty()) dirty.add(e.getKey());
+        }
+        return dirty;
+    }
+
+    // Current balance of every cached player
+    public void forEach(BiConsumer<UUID, Long> action) {
+        for (Map.Entry<UUID, Entry> e : entries.entrySet()) {
+            if (e.getValue().isLive()) action.accept(e.getKey(), e.getValue().getBalance());
+        }
+    }
+
+    // Lowest journal seq that may not be in storage yet, Long.MAX_VALUE if everything is
+    public long unflushedFloor() {
+        long floor = Long.MAX_VALUE;
+        for (Entry entry : entries.values()) {
+            synchronized (entry) {
+                if (entry.journalSeq > entry.flushedSeq || entry.inFlight != 0L) floor = Math.min(floor, entry.flushedSeq + 1);
+            }
+        }
+        return floor;
+    }
+
+    public List<UUID> keys() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    Entry getRaw(UUID uuid) {
+        return entries.get(uuid);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
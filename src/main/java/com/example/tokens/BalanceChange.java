@@ -0,0 +1,26 @@
+package com.example.tokens;
+
+import java.util.UUID;
+
+// One change of a player's balance, as delivered to BalanceChangeFeed subscribers and
+// BalanceChangeEvent listeners
+public final class BalanceChange {
+    public final UUID uuid;
+    public final long oldBalance;
+    public final long newBalance;
+    // Reason given by whoever made the change; null when it was picked up from another server or an import
+    public final String reason;
+    public final long timestamp;
+
+    public BalanceChange(UUID uuid, long oldBalance, long newBalance, String reason, long timestamp) {
+        this.uuid = uuid;
+        this.oldBalance = oldBalance;
+        this.newBalance = newBalance;
+        this.reason = reason;
+        this.timestamp = timestamp;
+    }
+
+    public long getDelta() {
+        return newBalance - oldBalance;
+    }
+}
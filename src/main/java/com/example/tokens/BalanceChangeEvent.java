@@ -0,0 +1,52 @@
+package com.example.tokens;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+
+import java.util.UUID;
+
+// Fired on the server thread after a token balance changed, within a tick of the change and in
+// the order the changes were made. Informational only, the change has already happened
+public class BalanceChangeEvent extends Event {
+    private static final HandlerList HANDLERS = new HandlerList();
+
+    private final BalanceChange change;
+
+    public BalanceChangeEvent(BalanceChange change) {
+        this.change = change;
+    }
+
+    public BalanceChange getChange() {
+        return change;
+    }
+
+    public UUID getPlayerId() {
+        return change.uuid;
+    }
+
+    public long getDelta() {
+        return change.getDelta();
+    }
+
+    public long getOldBalance() {
+        return change.oldBalance;
+    }
+
+    public long getNewBalance() {
+        return change.newBalance;
+    }
+
+    // null when the change was picked up from another server or an import
+    public String getReason() {
+        return change.reason;
+    }
+
+    @Override
+    public HandlerList getHandlers() {
+        return HANDLERS;
+    }
+
+    public static HandlerList getHandlerList() {
+        return HANDLERS;
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.tokens;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Hands every balance change to subscribers, in batches from a background thread, and to Bukkit
+// listeners as BalanceChangeEvent, fired once per tick from the server thread. Changes are only
+// queued for a side that has someone listening, so with neither a change costs two reads.
+// When a queue is full the oldest change is dropped and counted, nothing ever blocks the caller.
+public class BalanceChangeFeed {
+    public interface Subscription {
+        void cancel();
+    }
+
+    private final Plugin plugin;
+    private final List<Consumer<List<BalanceChange>>> subscribers = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<BalanceChange> queue;
+    private final BlockingQueue<BalanceChange> events;
+    private final long batchMillis;
+    private final boolean bukkitEvents;
+    private final LongAdder dropped;
+    private final Thread thread;
+    private BukkitTask eventTask;
+    private volatile boolean running = true;
+
+    public BalanceChangeFeed(Plugin plugin, boolean bukkitEvents, long batchMillis, int queueSize, LongAdder dropped) {
+        this.plugin = plugin;
+        this.bukkitEvents = bukkitEvents;
+        this.batchMillis = Math.max(1L, batchMillis);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        this.events = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        this.dropped = dropped;
+        this.thread = new Thread(this::run, "TokensPlugin-ChangeFeed");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+        if (bukkitEvents) eventTask = plugin.getServer().getScheduler().runTaskTimer(plugin, this::fireEvents, 1L, 1L);
+    }
+
+    // Receive every change made from now on, in batches of up to batchMillis worth of changes.
+    // Called on the feed thread; a slow subscriber delays the next batch for everyone
+    public Subscription subscribe(Consumer<List<BalanceChange>> subscriber) {
+        subscribers.add(subscriber);
+        return () -> subscribers.remove(subscriber);
+    }
+
+    public void publish(UUID uuid, long oldBalance, long newBalance, String reason) {
+        boolean batched = !subscribers.isEmpty();
+        boolean fired = bukkitEvents && running && BalanceChangeEvent.getHandlerList().getRegisteredListeners().length > 0;
+        if (!batched && !fired) return;
+        BalanceChange change = new BalanceChange(uuid, oldBalance, newBalance, reason, System.currentTimeMillis());
+        if (batched) offer(queue, change);
+        if (fired) offer(events, change);
+    }
+
+    private void offer(BlockingQueue<BalanceChange> target, BalanceChange change) {
+        while (!target.offer(change)) {
+            if (target.poll() != null) dropped.increment();
+        }
+    }
+
+    private void fireEvents() {
+        BalanceChange change;
+        while ((change = events.poll()) != null) {
+            try {
+                Bukkit.getPluginManager().callEvent(new BalanceChangeEvent(change));
+            } catch (Exception e) {
+                plugin.getLogger().warning("BalanceChangeEvent listener failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void run() {
+        List<BalanceChange> batch = new ArrayList<>();
+        while (running) {
+            try {
+                BalanceChange first = queue.poll(batchMillis, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                // Let the batch fill up for the rest of the interval
+                Thread.sleep(batchMillis);
+                queue.drainTo(batch);
+            } catch (InterruptedException e) {
+                // Woken up by shutdown(), whatever is left gets delivered there
+                queue.drainTo(batch);
+            }
+            deliver(batch);
+            batch = new ArrayList<>();
+        }
+    }
+
+    private void deliver(List<BalanceChange> batch) {
+        if (batch.isEmpty()) return;
+        List<BalanceChange> view = Collections.unmodifiableList(batch);
+        for (Consumer<List<BalanceChange>> subscriber : subscribers) {
+            try {
+                subscriber.accept(view);
+            } catch (Exception e) {
+                plugin.getLogger().warning("Balance change subscriber failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // Deliver what is still queued and stop; call from the server thread
+    public void shutdown() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(5000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<BalanceChange> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        deliver(rest);
+        if (eventTask != null) eventTask.cancel();
+        fireEvents();
+    }
+}
@@ -0,0 +1,8 @@
+package com.example.tokens;
+
+import java.util.UUID;
+
+// Told about every balance change TokenService makes, on the thread that made it. Keep it cheap.
+public interface BalanceListener {
+    void onBalanceChange(UUID uuid, long oldBalance, long newBalance);
+}
@@ -0,0 +1,388 @@
+package com.example.tokens;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+// Streams balances and the transaction log to and from CSV or NDJSON files, for /tokens export and
+// /tokens import. Storage is read one key range at a time and written in batches of BATCH_SIZE rows,
+// so memory use does not grow with the number of rows and live traffic never waits on more than one
+// short batch. One transfer runs at a time, on its own thread.
+public class BalanceTransfer {
+    public enum Kind { BALANCES, HISTORY }
+
+    public enum Format {
+        CSV, NDJSON;
+
+        // By file extension: .csv, otherwise .ndjson or .jsonl
+        static Format of(String fileName) {
+            String name = fileName.toLowerCase(Locale.ROOT);
+            if (name.endsWith(".csv")) return CSV;
+            if (name.endsWith(".ndjson") || name.endsWith(".jsonl")) return NDJSON;
+            return null;
+        }
+    }
+
+    // Receives progress lines and the final result, on the transfer thread
+    public interface Progress {
+        void report(String message);
+    }
+
+    private static final int BATCH_SIZE = 500;
+    private static final long PROGRESS_MILLIS = 5000L;
+    private static final String[] BALANCE_COLUMNS = {"uuid", "balance"};
+    private static final String[] HISTORY_COLUMNS = {"id", "uuid", "amount", "balance_before", "balance_after", "reason", "timestamp"};
+
+    private final TokenService service;
+    private final Logger logger;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public BalanceTransfer(TokenService service, Logger logger) {
+        this.service = service;
+        this.logger = logger;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    // Start writing kind to file in the background. False if another transfer is still running
+    public boolean startExport(Kind kind, Path file, Progress progress) {
+        return start(() -> {
+            long rows = export(kind, file, progress);
+            progress.report("Exported " + rows + " " + noun(kind) + " to " + file.getFileName() + ".");
+        }, progress);
+    }
+
+    // Start reading kind from file in the background. False if another transfer is still running
+    public boolean startImport(Kind kind, Path file, Progress progress) {
+        return start(() -> {
+            long[] result = importFrom(kind, file, progress);
+            progress.report("Imported " + result[0] + " " + noun(kind) + " from " + file.getFileName()
+                    + (result[1] > 0 ? ", skipped " + result[1] + " unreadable lines." : "."));
+        }, progress);
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    private boolean start(Task task, Progress progress) {
+        if (!running.compareAndSet(false, true)) return false;
+        Thread thread = new Thread(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                logger.warning("Token transfer failed: " + e.getMessage());
+                progress.report("Transfer failed: " + e.getMessage());
+            } finally {
+                running.set(false);
+            }
+        }, "TokensPlugin-Transfer");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    // Write to a temporary file first, so a failed export never leaves half a file behind
+    long export(Kind kind, Path file, Progress progress) throws Exception {
+        Format format = formatOf(file);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        long[] rows = {0L};
+        long[] reportAt = {System.currentTimeMillis() + PROGRESS_MILLIS};
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            String[] columns = kind == Kind.BALANCES ? BALANCE_COLUMNS : HISTORY_COLUMNS;
+            if (format == Format.CSV) writeCsv(writer, (Object[]) columns);
+            if (kind == Kind.BALANCES) {
+                service.exportBalances((uuid, balance) -> {
+                    writeRow(writer, format, columns, uuid, balance);
+                    progress(++rows[0], reportAt, "Exported", kind, progress);
+                });
+            } else {
+                service.exportHistory(record -> {
+                    writeRow(writer, format, columns, record.id, record.uuid, record.amount, record.balanceBefore,
+                            record.balanceAfter, record.reason, record.timestamp);
+                    progress(++rows[0], reportAt, "Exported", kind, progress);
+                });
+            }
+        } catch (Exception e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        return rows[0];
+    }
+
+    // Returns {rows imported, lines skipped}. Balances overwrite the stored ones, transaction rows are
+    // added to the log with new ids. Columns are matched by name, so files from other tools work as long
+    // as they have at least uuid and balance (or uuid and amount)
+    long[] importFrom(Kind kind, Path file, Progress progress) throws Exception {
+        Format format = formatOf(file);
+        long rows = 0L, skipped = 0L;
+        long[] reportAt = {System.currentTimeMillis() + PROGRESS_MILLIS};
+        Map<UUID, Long> balances = new LinkedHashMap<>();
+        List<TransactionRecord> records = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            List<String> header = null;
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                // Spreadsheet programs like to start the file with a byte order mark
+                if (lineNumber++ == 0 && line.startsWith("\uFEFF")) line = line.substring(1);
+                if (line.trim().isEmpty()) continue;
+                Map<String, String> row;
+                try {
+                    if (format == Format.CSV) {
+                        List<String> fields = parseCsv(line);
+                        if (header == null) {
+                            header = new ArrayList<>();
+                            for (String column : fields) {
+                                header.add(column.trim().toLowerCase(Locale.ROOT));
+                            }
+                            continue;
+                        }
+                        row = new HashMap<>();
+                        for (int i = 0; i < header.size() && i < fields.size(); i++) {
+                            row.put(header.get(i), fields.get(i));
+                        }
+                    } else {
+                        row = parseJson(line);
+                    }
+                    UUID uuid = UUID.fromString(required(row, "uuid").trim());
+                    if (kind == Kind.BALANCES) {
+                        balances.put(uuid, Long.parseLong(required(row, "balance").trim()));
+                    } else {
+                        records.add(new TransactionRecord(uuid, Long.parseLong(required(row, "amount").trim()),
+                                number(row, "balance_before", 0L), number(row, "balance_after", 0L), row.get("reason"),
+                                number(row, "timestamp", System.currentTimeMillis())));
+                    }
+                } catch (IllegalArgumentException e) {
+                    // Also NumberFormatException; reported once and counted, the rest of the file still goes in
+                    if (skipped++ == 0) logger.warning("Skipping unreadable line " + lineNumber + " of " + file.getFileName() + ": " + e.getMessage());
+                    continue;
+                }
+                rows++;
+                if (balances.size() >= BATCH_SIZE) {
+                    service.importBalances(balances);
+                    balances.clear();
+                } else if (records.size() >= BATCH_SIZE) {
+                    service.importHistory(records);
+                    records.clear();
+                }
+                progress(rows, reportAt, "Imported", kind, progress);
+            }
+        }
+        if (!balances.isEmpty()) service.importBalances(balances);
+        if (!records.isEmpty()) service.importHistory(records);
+        return new long[]{rows, skipped};
+    }
+
+    private static Format formatOf(Path file) {
+        Format format = Format.of(file.getFileName().toString());
+        if (format == null) throw new IllegalArgumentException("Unknown file type " + file.getFileName() + ", use .csv or .ndjson");
+        return format;
+    }
+
+    private static String noun(Kind kind) {
+        return kind == Kind.BALANCES ? "balances" : "transactions";
+    }
+
+    private static void progress(long rows, long[] reportAt, String verb, Kind kind, Progress progress) {
+        if (rows % 1000 != 0) return;
+        long now = System.currentTimeMillis();
+        if (now < reportAt[0]) return;
+        reportAt[0] = now + PROGRESS_MILLIS;
+        progress.report(verb + " " + rows + " " + noun(kind) + " so far...");
+    }
+
+    private static String required(Map<String, String> row, String column) {
+        String value = row.get(column);
+        if (value == null || value.isEmpty()) throw new IllegalArgumentException("missing " + column);
+        return value;
+    }
+
+    private static long number(Map<String, String> row, String column, long fallback) {
+        String value = row.get(column);
+        return value == null || value.trim().isEmpty() ? fallback : Long.parseLong(value.trim());
+    }
+
+    // Writers are only called from the storage scan, which cannot throw IOException itself
+    private static void writeRow(Writer writer, Format format, String[] columns, Object... values) {
+        try {
+            if (format == Format.CSV) {
+                writeCsv(writer, values);
+            } else {
+                writer.write('{');
+                for (int i = 0; i < columns.length; i++) {
+                    if (i > 0) writer.write(',');
+                    writer.write('"');
+                    writer.write(columns[i]);
+                    writer.write("\":");
+                    Object value = values[i];
+                    if (value == null) {
+                        writer.write("null");
+                    } else if (value instanceof Number) {
+                        writer.write(value.toString());
+                    } else {
+                        writeJsonString(writer, value.toString());
+                    }
+                }
+                writer.write("}\n");
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to write export: " + e.getMessage(), e);
+        }
+    }
+
+    // One line per row, so line breaks in a reason become spaces
+    private static void writeCsv(Writer writer, Object... values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) writer.write(',');
+            if (values[i] == null) continue;
+            String value = values[i].toString().replace('\r', ' ').replace('\n', ' ');
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0) {
+                writer.write('"');
+                writer.write(value.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(value);
+            }
+        }
+        writer.write('\n');
+    }
+
+    private static void writeJsonString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c < 0x20) {
+                writer.write(String.format("\\u%04x", (int) c));
+            } else {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+
+    // Fields of one CSV line; quoted fields may contain commas and doubled quotes
+    static List<String> parseCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("unterminated quote");
+        fields.add(field.toString());
+        return fields;
+    }
+
+    // One flat JSON object; values are kept as text, null values are left out
+    static Map<String, String> parseJson(String line) {
+        Map<String, String> row = new HashMap<>();
+        int[] pos = {skipSpace(line, 0)};
+        expect(line, pos, '{');
+        if (peek(line, pos) == '}') return row;
+        while (true) {
+            String key = readJsonString(line, pos);
+            expect(line, pos, ':');
+            char c = peek(line, pos);
+            String value;
+            if (c == '"') {
+                value = readJsonString(line, pos);
+            } else {
+                int start = pos[0];
+                while (pos[0] < line.length() && ",} \t".indexOf(line.charAt(pos[0])) < 0) pos[0]++;
+                value = line.substring(start, pos[0]);
+                if (value.isEmpty() || c == '{' || c == '[') throw new IllegalArgumentException("unsupported value for " + key);
+                if (value.equals("null")) value = null;
+            }
+            if (value != null) row.put(key.toLowerCase(Locale.ROOT), value);
+            if (peek(line, pos) == ',') {
+                pos[0]++;
+                continue;
+            }
+            expect(line, pos, '}');
+            return row;
+        }
+    }
+
+    private static String readJsonString(String line, int[] pos) {
+        expect(line, pos, '"');
+        StringBuilder value = new StringBuilder();
+        while (pos[0] < line.length()) {
+            char c = line.charAt(pos[0]++);
+            if (c == '"') return value.toString();
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (pos[0] >= line.length()) break;
+            char escaped = line.charAt(pos[0]++);
+            switch (escaped) {
+                case 'n': value.append('\n'); break;
+                case 't': value.append('\t'); break;
+                case 'r': value.append('\r'); break;
+                case 'b': value.append('\b'); break;
+                case 'f': value.append('\f'); break;
+                case 'u':
+                    if (pos[0] + 4 > line.length()) throw new IllegalArgumentException("bad escape");
+                    value.append((char) Integer.parseInt(line.substring(pos[0], pos[0] + 4), 16));
+                    pos[0] += 4;
+                    break;
+                default: value.append(escaped);
+            }
+        }
+        throw new IllegalArgumentException("unterminated string");
+    }
+
+    private static char peek(String line, int[] pos) {
+        pos[0] = skipSpace(line, pos[0]);
+        if (pos[0] >= line.length()) throw new IllegalArgumentException("unexpected end of line");
+        return line.charAt(pos[0]);
+    }
+
+    private static void expect(String line, int[] pos, char c) {
+        if (peek(line, pos) != c) throw new IllegalArgumentException("expected " + c + " at " + pos[0]);
+        pos[0]++;
+    }
+
+    private static int skipSpace(String line, int pos) {
+        while (pos < line.length() && Character.isWhitespace(line.charAt(pos))) pos++;
+        return pos;
+    }
+}
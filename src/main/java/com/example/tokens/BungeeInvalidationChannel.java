@@ -0,0 +1,89 @@
+package com.example.tokens;
+
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.messaging.PluginMessageListener;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.UUID;
+
+// Sends invalidations to every other server through BungeeCord's Forward plugin message.
+// Plugin messages travel over a player connection, so a server with nobody online can neither
+// send nor receive them; combine with polling if that matters.
+public class BungeeInvalidationChannel implements InvalidationChannel, PluginMessageListener {
+    private static final String CHANNEL = "BungeeCord";
+    private static final String SUBCHANNEL = "TokensInvalidate";
+
+    private final Plugin plugin;
+    private volatile Receiver receiver;
+
+    public BungeeInvalidationChannel(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public void start(Receiver receiver) {
+        this.receiver = receiver;
+        plugin.getServer().getMessenger().registerOutgoingPluginChannel(plugin, CHANNEL);
+        plugin.getServer().getMessenger().registerIncomingPluginChannel(plugin, CHANNEL, this);
+    }
+
+    @Override
+    public void publish(UUID uuid, long version) {
+        byte[] message;
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(24);
+            DataOutputStream data = new DataOutputStream(payload);
+            data.writeLong(uuid.getMostSignificantBits());
+            data.writeLong(uuid.getLeastSignificantBits());
+            data.writeLong(version);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF("Forward");
+            out.writeUTF("ALL");
+            out.writeUTF(SUBCHANNEL);
+            out.writeShort(payload.size());
+            out.write(payload.toByteArray());
+            message = bytes.toByteArray();
+        } catch (IOException e) {
+            return;
+        }
+        // Sending is only allowed from the main thread
+        if (plugin.getServer().isPrimaryThread()) {
+            send(message);
+        } else if (plugin.isEnabled()) {
+            plugin.getServer().getScheduler().runTask(plugin, () -> send(message));
+        }
+    }
+
+    private void send(byte[] message) {
+        Iterator<? extends Player> players = plugin.getServer().getOnlinePlayers().iterator();
+        if (players.hasNext()) players.next().sendPluginMessage(plugin, CHANNEL, message);
+    }
+
+    @Override
+    public void onPluginMessageReceived(String channel, Player player, byte[] message) {
+        if (!CHANNEL.equals(channel) || receiver == null) return;
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+            if (!SUBCHANNEL.equals(in.readUTF())) return;
+            in.readShort();
+            UUID uuid = new UUID(in.readLong(), in.readLong());
+            receiver.onInvalidate(uuid, in.readLong());
+        } catch (IOException e) {
+            plugin.getLogger().warning("Malformed token invalidation message: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        plugin.getServer().getMessenger().unregisterIncomingPluginChannel(plugin, CHANNEL, this);
+        plugin.getServer().getMessenger().unregisterOutgoingPluginChannel(plugin, CHANNEL);
+    }
+}
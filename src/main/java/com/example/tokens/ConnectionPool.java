@@ -0,0 +1,150 @@
+package com.example.tokens;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Fixed size pool of JDBC connections. A connection is only ever used by one thread at a time:
+// borrow it with try-with-resources and it goes back to the pool when the lease is closed.
+// Each connection keeps the statements prepared on it, so hot queries are only prepared once.
+public class ConnectionPool {
+    // Connections idle for longer are checked before use; busy ones skip the extra round trip
+    private static final long VALIDATE_IDLE_MILLIS = 30000L;
+
+    private final String url, user, password;
+    private final BlockingQueue<PooledConnection> idle;
+    private final long borrowTimeoutMillis;
+    private volatile boolean closed;
+
+    public ConnectionPool(String url, String user, String password, int size, long borrowTimeoutMillis) throws SQLException {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.idle = new ArrayBlockingQueue<>(Math.max(1, size));
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        for (int i = 0; i < Math.max(1, size); i++) {
+            idle.add(open());
+        }
+    }
+
+    public Lease borrow() throws SQLException {
+        if (closed) throw new SQLException("Connection pool is closed");
+        PooledConnection pooled;
+        try {
+            pooled = idle.poll(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        if (pooled == null) throw new SQLException("Timed out waiting for a database connection");
+        // Replace connections the driver closed after an error, and ones the server may have dropped
+        // while they were idle or that failed last time. isClosed() is answered without the server
+        if (pooled.connection.isClosed() || (pooled.needsCheck() && !pooled.connection.isValid(2))) {
+            pooled.close();
+            try {
+                pooled = open();
+            } catch (SQLException e) {
+                // Keep the pool at full size, the next borrower gets another try
+                idle.offer(pooled);
+                throw e;
+            }
+        }
+        return new Lease(pooled);
+    }
+
+    private PooledConnection open() throws SQLException {
+        return new PooledConnection(DriverManager.getConnection(url, user, password));
+    }
+
+    public void close() {
+        closed = true;
+        PooledConnection pooled;
+        while ((pooled = idle.poll()) != null) {
+            pooled.close();
+        }
+    }
+
+    private static final class PooledConnection {
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+        private long lastUsed = System.currentTimeMillis();
+        private boolean suspect;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        private boolean needsCheck() {
+            return suspect || System.currentTimeMillis() - lastUsed > VALIDATE_IDLE_MILLIS;
+        }
+
+        private PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+            String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "#keys#" + sql : sql;
+            PreparedStatement ps = statements.get(key);
+            if (ps == null || ps.isClosed()) {
+                ps = connection.prepareStatement(sql, autoGeneratedKeys);
+                statements.put(key, ps);
+            }
+            return ps;
+        }
+
+        private void close() {
+            for (PreparedStatement ps : statements.values()) {
+                try {
+                    ps.close();
+                } catch (Exception ignored) {
+                }
+            }
+            statements.clear();
+            try {
+                connection.close();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    public class Lease implements AutoCloseable {
+        private final PooledConnection pooled;
+
+        private Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        public Connection connection() {
+            return pooled.connection;
+        }
+
+        // Statement cached on this connection; do not close it, the pool owns it
+        public PreparedStatement prepare(String sql) throws SQLException {
+            return pooled.prepare(sql, Statement.NO_GENERATED_KEYS);
+        }
+
+        public PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+            return pooled.prepare(sql, autoGeneratedKeys);
+        }
+
+        @Override
+        public void close() {
+            Connection connection = pooled.connection;
+            pooled.lastUsed = System.currentTimeMillis();
+            pooled.suspect = false;
+            try {
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                // Probably dropped, checked on the next borrow
+                pooled.suspect = true;
+            }
+            if (closed || !idle.offer(pooled)) pooled.close();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.tokens;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+// Merges the log rows of back-to-back deposits to one player with the same reason (kill rewards,
+// bed breaks) into a single row per window. Balances are not touched here; only the number of
+// token_transactions rows goes down. A player has at most one open group: any other change to
+// their balance closes it first, so the merged rows still chain balance_before to balance_after.
+public class DepositCoalescer {
+    private static final class Group {
+        final String reason;
+        final long balanceBefore;
+        final long started;
+        long amount;
+        long balanceAfter;
+        int count = 1;
+
+        Group(String reason, long amount, long balanceBefore, long balanceAfter, long started) {
+            this.reason = reason;
+            this.amount = amount;
+            this.balanceBefore = balanceBefore;
+            this.balanceAfter = balanceAfter;
+            this.started = started;
+        }
+
+        TransactionRecord toRecord(UUID uuid) {
+            String merged = count == 1 || reason == null ? reason : reason + " (" + count + "x)";
+            return new TransactionRecord(uuid, amount, balanceBefore, balanceAfter, merged, started);
+        }
+    }
+
+    private final Map<UUID, Group> open = new ConcurrentHashMap<>();
+    private final long windowMillis;
+    private final Consumer<TransactionRecord> sink;
+
+    // Closed groups go to sink; a window of 0 turns coalescing off
+    public DepositCoalescer(long windowMillis, Consumer<TransactionRecord> sink) {
+        this.windowMillis = Math.max(0L, windowMillis);
+        this.sink = sink;
+    }
+
+    public boolean isEnabled() {
+        return windowMillis > 0;
+    }
+
+    // Add a deposit to the player's open group. Returns false if coalescing is off
+    public boolean add(UUID uuid, long amount, long balanceBefore, long balanceAfter, String reason) {
+        if (windowMillis <= 0) return false;
+        long now = System.currentTimeMillis();
+        TransactionRecord[] closed = new TransactionRecord[1];
+        open.compute(uuid, (key, group) -> {
+            if (group != null && Objects.equals(group.reason, reason) && group.balanceAfter == balanceBefore
+                    && now - group.started < windowMillis) {
+                group.amount += amount;
+                group.balanceAfter = balanceAfter;
+                group.count++;
+                return group;
+            }
+            if (group != null) closed[0] = group.toRecord(uuid);
+            return new Group(reason, amount, balanceBefore, balanceAfter, now);
+        });
+        if (closed[0] != null) sink.accept(closed[0]);
+        return true;
+    }
+
+    // Close the player's open group, e.g. before logging a change that is not merged
+    public void flush(UUID uuid) {
+        if (open.isEmpty()) return;
+        Group group = open.remove(uuid);
+        if (group != null) sink.accept(group.toRecord(uuid));
+    }
+
+    // Close every group whose window has passed
+    public void flushExpired() {
+        long now = System.currentTimeMillis();
+        List<TransactionRecord> closed = new ArrayList<>();
+        for (UUID uuid : open.keySet()) {
+            open.computeIfPresent(uuid, (key, group) -> {
+                if (now - group.started < windowMillis) return group;
+                closed.add(group.toRecord(key));
+                return null;
+            });
+        }
+        closed.forEach(sink);
+    }
+
+    public void flushAll() {
+        List<TransactionRecord> closed = new ArrayList<>();
+        for (UUID uuid : open.keySet()) {
+            Group group = open.remove(uuid);
+            if (group != null) closed.add(group.toRecord(uuid));
+        }
+        closed.forEach(sink);
+    }
+}
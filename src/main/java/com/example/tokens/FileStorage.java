@@ -0,0 +1,409 @@
+package com.example.tokens;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+// Local ledger for single-server setups, no database needed. Balances live in memory; every change
+// appends the resulting balance to a journal, so replaying it is idempotent (last record wins).
+// Once the journal grows past compactBytes, writes move on to a new journal file and a background
+// thread folds everything into a snapshot, then deletes the older journals. Every change made after
+// the switch is in the new journal, so a snapshot that already holds some of them is still right.
+// On startup the snapshot is read and the journals replayed on top of it, oldest first.
+public class FileStorage implements TokenStorage {
+    private static final int SNAPSHOT_MAGIC = 0x544B4E53; // "TKNS"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int RECORD_SIZE = 24;
+    // Journal of versions that kept a single file, replayed before the numbered ones
+    private static final String LEGACY_JOURNAL = "balances.journal";
+
+    private final Path directory;
+    private final long compactBytes;
+    private final Logger logger;
+    private final Map<UUID, Long> balances = new ConcurrentHashMap<>();
+    private final Map<String, UUID> names = new ConcurrentHashMap<>();
+    private final Map<UUID, String> displayNames = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private JournalFile journal;
+    // Number of the journal file written to
+    private long generation;
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private ExecutorService compactor;
+    private BufferedWriter transactions;
+    private BufferedWriter nameWriter;
+
+    public FileStorage(Path directory, long compactBytes, Logger logger) {
+        this.directory = directory;
+        this.compactBytes = Math.max(64L * 1024, compactBytes);
+        this.logger = logger;
+    }
+
+    @Override
+    public void init() throws IOException {
+        Files.createDirectories(directory);
+        readSnapshot();
+        TreeMap<Long, Path> journals = journalFiles();
+        for (Path path : journals.values()) {
+            try (JournalFile file = new JournalFile(path)) {
+                file.replay(buffer -> balances.put(new UUID(buffer.getLong(), buffer.getLong()), buffer.getLong()));
+            }
+        }
+        generation = journals.isEmpty() ? 1L : journals.lastKey() + 1;
+        journal = new JournalFile(journalPath(generation));
+        // Start from a clean snapshot; nobody else is using the ledger yet, so this may block
+        if (!journals.isEmpty()) {
+            writeSnapshot(new HashMap<>(balances));
+            deleteJournals(generation - 1);
+        }
+        compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TokensPlugin-LedgerCompact");
+            thread.setDaemon(true);
+            return thread;
+        });
+        transactions = Files.newBufferedWriter(directory.resolve("transactions.log"), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        readNames();
+    }
+
+    // names.tsv is appended to on every rename and rewritten on close, the last line for a name wins
+    private void readNames() throws IOException {
+        Path file = directory.resolve("names.tsv");
+        if (Files.exists(file)) {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                int tab = line.indexOf('\t');
+                if (tab <= 0) continue;
+                try {
+                    String name = line.substring(0, tab);
+                    UUID uuid = UUID.fromString(line.substring(tab + 1));
+                    names.put(NameIndex.key(name), uuid);
+                    displayNames.put(uuid, name);
+                } catch (IllegalArgumentException ignored) {
+                    // Torn last line after a crash
+                }
+            }
+        }
+        nameWriter = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void writeNames() throws IOException {
+        Path file = directory.resolve("names.tsv");
+        Path temp = directory.resolve("names.tsv.tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, UUID> e : names.entrySet()) {
+                String name = displayNames.get(e.getValue());
+                // A name that moved to another player only keeps its key
+                out.write((name != null && NameIndex.key(name).equals(e.getKey()) ? name : e.getKey()) + "\t" + e.getValue());
+                out.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void readSnapshot() throws IOException {
+        Path snapshot = directory.resolve("balances.snapshot");
+        if (!Files.exists(snapshot)) return;
+        try (InputStream file = Files.newInputStream(snapshot)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(file), new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Unknown snapshot format in " + snapshot);
+            }
+            int count = in.readInt();
+            Map<UUID, Long> loaded = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                loaded.put(new UUID(in.readLong(), in.readLong()), in.readLong());
+            }
+            long expected = checked.getChecksum().getValue();
+            if (in.readLong() != expected) throw new IOException("Snapshot " + snapshot + " is corrupt");
+            balances.putAll(loaded);
+        }
+    }
+
+    private Path journalPath(long generation) {
+        return directory.resolve("balances-" + generation + ".journal");
+    }
+
+    // Journal files by number, the legacy single journal as 0
+    private TreeMap<Long, Path> journalFiles() throws IOException {
+        TreeMap<Long, Path> journals = new TreeMap<>();
+        Path legacy = directory.resolve(LEGACY_JOURNAL);
+        if (Files.exists(legacy)) journals.put(0L, legacy);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "balances-*.journal")) {
+            for (Path path : files) {
+                String name = path.getFileName().toString();
+                try {
+                    journals.put(Long.parseLong(name.substring("balances-".length(), name.length() - ".journal".length())), path);
+                } catch (NumberFormatException ignored) {
+                    // Not one of ours
+                }
+            }
+        }
+        return journals;
+    }
+
+    // Journals up to and including this number are in the snapshot now
+    private void deleteJournals(long upTo) throws IOException {
+        for (Map.Entry<Long, Path> e : journalFiles().entrySet()) {
+            if (e.getKey() <= upTo) Files.deleteIfExists(e.getValue());
+        }
+    }
+
+    // Write the balances to a new snapshot and swap it in
+    private void writeSnapshot(Map<UUID, Long> copy) throws IOException {
+        Path snapshot = directory.resolve("balances.snapshot");
+        Path temp = directory.resolve("balances.snapshot.tmp");
+        try (OutputStream file = Files.newOutputStream(temp)) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(copy.size());
+            for (Map.Entry<UUID, Long> e : copy.entrySet()) {
+                out.writeLong(e.getKey().getMostSignificantBits());
+                out.writeLong(e.getKey().getLeastSignificantBits());
+                out.writeLong(e.getValue());
+            }
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+        }
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Record the new balance; called with writeLock held. A full journal is swapped for a new one
+    // right here, everything slow happens on the compactor thread
+    private void journal(UUID uuid, long balance) throws IOException {
+        record.clear();
+        record.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).putLong(balance).flip();
+        journal.append(record);
+        if (journal.size() < compactBytes || !compacting.compareAndSet(false, true)) return;
+        JournalFile full = journal;
+        long fullGeneration = generation;
+        try {
+            journal = new JournalFile(journalPath(generation + 1));
+            generation++;
+        } catch (IOException e) {
+            // The record is written, so the change must not fail; keep appending to the full journal
+            compacting.set(false);
+            logger.warning("Failed to start a new ledger journal: " + e.getMessage());
+            return;
+        }
+        compactor.execute(() -> compact(full, fullGeneration));
+    }
+
+    private void compact(JournalFile full, long fullGeneration) {
+        try {
+            full.close();
+            // Wait for the change that filled the journal to reach the map
+            synchronized (writeLock) {
+            }
+            writeSnapshot(new HashMap<>(balances));
+            deleteJournals(fullGeneration);
+        } catch (IOException e) {
+            // The journals stay and are replayed on the next start, the next compaction tries again
+            logger.warning("Failed to compact the token ledger: " + e.getMessage());
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    @Override
+    public long load(UUID uuid) {
+        return balances.getOrDefault(uuid, 0L);
+    }
+
+    @Override
+    public Map<UUID, Long> loadBatch(Collection<UUID> uuids) {
+        Map<UUID, Long> result = new HashMap<>();
+        for (UUID uuid : uuids) {
+            Long balance = balances.get(uuid);
+            if (balance != null) result.put(uuid, balance);
+        }
+        return result;
+    }
+
+    @Override
+    public long applyDelta(UUID uuid, long delta) throws IOException {
+        synchronized (writeLock) {
+            long before = balances.getOrDefault(uuid, 0L);
+            long after = Math.max(0L, before + delta);
+            journal(uuid, after);
+            balances.put(uuid, after);
+            return before;
+        }
+    }
+
+    // One lock for the whole batch so readers never see half of it applied
+    @Override
+    public Map<UUID, Long> applyDeltas(Map<UUID, Long> deltas) throws IOException {
+        Map<UUID, Long> before = new HashMap<>();
+        synchronized (writeLock) {
+            for (Map.Entry<UUID, Long> e : deltas.entrySet()) {
+                long current = balances.getOrDefault(e.getKey(), 0L);
+                long after = Math.max(0L, current + e.getValue());
+                journal(e.getKey(), after);
+                balances.put(e.getKey(), after);
+                before.put(e.getKey(), current);
+            }
+        }
+        return before;
+    }
+
+    @Override
+    public long withdraw(UUID uuid, long amount) throws IOException {
+        synchronized (writeLock) {
+            Long current = balances.get(uuid);
+            if (current == null || current < amount) return -1L;
+            long after = current - amount;
+            journal(uuid, after);
+            balances.put(uuid, after);
+            return after;
+        }
+    }
+
+    @Override
+    public long set(UUID uuid, long balance) throws IOException {
+        synchronized (writeLock) {
+            long before = balances.getOrDefault(uuid, 0L);
+            journal(uuid, balance);
+            balances.put(uuid, balance);
+            return before;
+        }
+    }
+
+    @Override
+    public void setBalances(Map<UUID, Long> balances) throws IOException {
+        synchronized (writeLock) {
+            for (Map.Entry<UUID, Long> e : balances.entrySet()) {
+                long balance = Math.max(0L, e.getValue());
+                journal(e.getKey(), balance);
+                this.balances.put(e.getKey(), balance);
+            }
+        }
+    }
+
+    @Override
+    public void forEachBalance(BiConsumer<UUID, Long> action) {
+        balances.forEach(action);
+    }
+
+    // Tab separated: timestamp, uuid, amount, balance before, balance after, reason
+    @Override
+    public void appendLog(List<TransactionRecord> batch) throws IOException {
+        synchronized (transactions) {
+            for (TransactionRecord record : batch) {
+                transactions.write(record.timestamp + "\t" + record.uuid + "\t" + record.amount + "\t"
+                        + record.balanceBefore + "\t" + record.balanceAfter + "\t"
+                        + (record.reason == null ? "" : record.reason.replace('\t', ' ').replace('\n', ' ')));
+                transactions.newLine();
+            }
+            transactions.flush();
+        }
+    }
+
+    @Override
+    public void saveName(String name, UUID uuid) throws IOException {
+        UUID previous = names.put(NameIndex.key(name), uuid);
+        String previousName = displayNames.put(uuid, name);
+        if (uuid.equals(previous) && name.equals(previousName)) return;
+        synchronized (nameWriter) {
+            nameWriter.write(name + "\t" + uuid);
+            nameWriter.newLine();
+            nameWriter.flush();
+        }
+    }
+
+    @Override
+    public UUID lookupName(String name) {
+        return names.get(NameIndex.key(name));
+    }
+
+    @Override
+    public Map<UUID, String> loadNames(Collection<UUID> uuids) {
+        Map<UUID, String> result = new HashMap<>();
+        for (UUID uuid : uuids) {
+            String name = displayNames.get(uuid);
+            if (name != null) result.put(uuid, name);
+        }
+        return result;
+    }
+
+    @Override
+    public Map<UUID, Long> loadTop(int limit) {
+        return MemoryStorage.topOf(balances, limit);
+    }
+
+    @Override
+    public void sync() throws IOException {
+        if (journal != null) journal.sync();
+    }
+
+    @Override
+    public void close() {
+        if (compactor != null) {
+            compactor.shutdown();
+            try {
+                compactor.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            if (journal != null) {
+                synchronized (writeLock) {
+                    journal.close();
+                    writeSnapshot(new HashMap<>(balances));
+                    deleteJournals(generation);
+                }
+            }
+        } catch (IOException e) {
+            // Nothing is lost, the journals are replayed on the next start
+            logger.warning("Failed to write the token ledger snapshot, the journal will be replayed on the next start: " + e.getMessage());
+        }
+        try {
+            if (transactions != null) transactions.close();
+        } catch (IOException e) {
+            logger.warning("Failed to close the token transaction log: " + e.getMessage());
+        }
+        try {
+            if (nameWriter != null) {
+                nameWriter.close();
+                writeNames();
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to write the token name index, it is rebuilt from names.tsv on the next start: " + e.getMessage());
+        }
+    }
+}
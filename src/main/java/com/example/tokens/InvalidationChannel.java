@@ -0,0 +1,19 @@
+package com.example.tokens;
+
+import java.util.UUID;
+
+// Lets servers that share one tokens table tell each other about balance changes, so cached
+// balances of online players can be refreshed instead of read from the database every time.
+public interface InvalidationChannel {
+    interface Receiver {
+        // version is the row version after the change, or -1 if the sender did not know it
+        void onInvalidate(UUID uuid, long version);
+    }
+
+    void start(Receiver receiver);
+
+    // Tell the other servers that this balance was written
+    void publish(UUID uuid, long version);
+
+    void close();
+}
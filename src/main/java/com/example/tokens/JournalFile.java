@@ -0,0 +1,138 @@
+package com.example.tokens;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// Append-only file of length-prefixed, checksummed records: [int length][payload][int crc32].
+// A record cut short by a crash fails its checksum and everything from there on is dropped
+// when the journal is replayed.
+public class JournalFile implements AutoCloseable {
+    private static final int MAX_RECORD = 1 << 20;
+
+    private final Path path;
+    private final ByteBuffer header = ByteBuffer.allocate(4);
+    private final ByteBuffer trailer = ByteBuffer.allocate(4);
+    private final CRC32 crc = new CRC32();
+    private final FileChannel channel;
+
+    public JournalFile(Path path) throws IOException {
+        this.path = path;
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    // Feed every intact record to the consumer and cut off a torn tail. Returns the number of records
+    public synchronized int replay(Consumer<ByteBuffer> consumer) throws IOException {
+        channel.position(0);
+        int count = 0;
+        long valid = 0;
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        ByteBuffer crcBuffer = ByteBuffer.allocate(4);
+        while (true) {
+            try {
+                readFully(lengthBuffer);
+                int length = lengthBuffer.getInt(0);
+                if (length < 0 || length > MAX_RECORD) break;
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                readFully(payload);
+                readFully(crcBuffer);
+                crc.reset();
+                crc.update(payload.array(), 0, length);
+                if ((int) crc.getValue() != crcBuffer.getInt(0)) break;
+                consumer.accept(payload);
+                count++;
+                valid = channel.position();
+            } catch (EOFException e) {
+                break;
+            }
+        }
+        if (valid < channel.size()) channel.truncate(valid);
+        channel.position(valid);
+        return count;
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new EOFException();
+        }
+        buffer.flip();
+    }
+
+    // Each payload is one record, read from its position to its limit. Several records go out in
+    // one write
+    public synchronized void append(ByteBuffer... payloads) throws IOException {
+        ByteBuffer[] parts = new ByteBuffer[payloads.length * 3];
+        long total = 0;
+        for (int i = 0; i < payloads.length; i++) {
+            ByteBuffer payload = payloads[i];
+            int length = payload.remaining();
+            crc.reset();
+            if (payload.hasArray()) {
+                crc.update(payload.array(), payload.arrayOffset() + payload.position(), length);
+            } else {
+                byte[] copy = new byte[length];
+                payload.duplicate().get(copy);
+                crc.update(copy, 0, length);
+            }
+            ByteBuffer head = payloads.length == 1 ? header : ByteBuffer.allocate(4);
+            ByteBuffer tail = payloads.length == 1 ? trailer : ByteBuffer.allocate(4);
+            head.clear();
+            head.putInt(length).flip();
+            tail.clear();
+            tail.putInt((int) crc.getValue()).flip();
+            parts[i * 3] = head;
+            parts[i * 3 + 1] = payload;
+            parts[i * 3 + 2] = tail;
+            total += 8L + length;
+        }
+        long written = 0;
+        while (written < total) {
+            written += channel.write(parts);
+        }
+    }
+
+    // Push appended records to disk. Not under the file's lock, so appends go on while the disk
+    // catches up; a file closed meanwhile was forced by close()
+    public void sync() throws IOException {
+        try {
+            channel.force(false);
+        } catch (ClosedByInterruptException e) {
+            throw e;
+        } catch (ClosedChannelException e) {
+            // Closed by close(), which forced it
+        }
+    }
+
+    public synchronized long size() throws IOException {
+        return channel.size();
+    }
+
+    // Drop every record, used once their content is safe somewhere else
+    public synchronized void clear() throws IOException {
+        channel.truncate(0);
+        channel.position(0);
+        channel.force(true);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            channel.force(true);
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.tokens;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+
+// Highest balances, kept up to date from balance changes instead of sorting the tokens table.
+// Tracks up to twice the shown size so a top player losing tokens can be replaced from the tail.
+// Every account that is not tracked has at most `floor` tokens, so tracked entries at or above
+// the floor are ranked correctly. When fewer than `size` of those are left, onShortfall is run
+// so the owner can reload the board from storage.
+public class Leaderboard implements BalanceListener {
+    public static final class Entry {
+        public final UUID uuid;
+        public final long balance;
+
+        Entry(UUID uuid, long balance) {
+            this.uuid = uuid;
+            this.balance = balance;
+        }
+    }
+
+    private static final Comparator<Entry> ORDER = Comparator.<Entry>comparingLong(e -> e.balance).reversed()
+            .thenComparing(e -> e.uuid);
+    private static final Entry[] EMPTY = new Entry[0];
+
+    private final int size;
+    private final int capacity;
+    private final Runnable onShortfall;
+    private final TreeSet<Entry> ordered = new TreeSet<>(ORDER);
+    private final Map<UUID, Entry> tracked = new HashMap<>();
+    private long floor;
+    private boolean loaded;
+    private volatile Entry[] snapshot = EMPTY;
+    private volatile boolean dirty;
+
+    public Leaderboard(int size, Runnable onShortfall) {
+        this.size = Math.max(1, size);
+        this.capacity = this.size * 2;
+        this.onShortfall = onShortfall;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    // Number of accounts to ask storage for when (re)loading
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // Replace the board with the top balances from storage, highest first
+    public synchronized void load(Map<UUID, Long> top) {
+        ordered.clear();
+        tracked.clear();
+        for (Map.Entry<UUID, Long> e : top.entrySet()) {
+            Entry entry = new Entry(e.getKey(), e.getValue());
+            ordered.add(entry);
+            tracked.put(entry.uuid, entry);
+        }
+        // A short result means storage holds no other accounts
+        floor = top.size() < capacity || ordered.isEmpty() ? 0L : ordered.last().balance;
+        loaded = true;
+        dirty = true;
+    }
+
+    @Override
+    public void onBalanceChange(UUID uuid, long oldBalance, long newBalance) {
+        boolean shortfall;
+        synchronized (this) {
+            if (!loaded) return;
+            Entry current = tracked.remove(uuid);
+            if (current != null) {
+                ordered.remove(current);
+            } else if (newBalance <= floor) {
+                // Still below everything tracked, nothing to do
+                return;
+            }
+            Entry entry = new Entry(uuid, newBalance);
+            ordered.add(entry);
+            tracked.put(uuid, entry);
+            while (ordered.size() > capacity) {
+                Entry dropped = ordered.pollLast();
+                tracked.remove(dropped.uuid);
+                floor = Math.max(floor, dropped.balance);
+            }
+            dirty = true;
+            shortfall = ranked() < size && floor > 0;
+        }
+        if (shortfall && onShortfall != null) onShortfall.run();
+    }
+
+    // Tracked entries that are known to be ranked correctly; caller holds the lock
+    private int ranked() {
+        int count = 0;
+        for (Entry entry : ordered) {
+            if (entry.balance < floor) break;
+            count++;
+        }
+        return count;
+    }
+
+    // Entry at a 1-based rank, or null if there is no such rank
+    public Entry get(int rank) {
+        Entry[] entries = entries();
+        return rank >= 1 && rank <= entries.length ? entries[rank - 1] : null;
+    }
+
+    public List<Entry> top(int count) {
+        Entry[] entries = entries();
+        List<Entry> result = new ArrayList<>(Math.min(count, entries.length));
+        for (int i = 0; i < entries.length && i < count; i++) {
+            result.add(entries[i]);
+        }
+        return result;
+    }
+
+    // Ranks are read far more often than they change, so readers share an array rebuilt after changes
+    private Entry[] entries() {
+        if (!dirty) return snapshot;
+        synchronized (this) {
+            if (dirty) {
+                List<Entry> list = new ArrayList<>(size);
+                for (Entry entry : ordered) {
+                    if (list.size() >= size || entry.balance < floor) break;
+                    list.add(entry);
+                }
+                snapshot = list.toArray(EMPTY);
+                dirty = false;
+            }
+            return snapshot;
+        }
+    }
+}
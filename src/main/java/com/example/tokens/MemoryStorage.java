@@ -0,0 +1,175 @@
+package com.example.tokens;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+// Keeps everything in memory and loses it on restart. Meant for benchmarks and local testing
+// of the service layer without a database server.
+public class MemoryStorage implements TokenStorage {
+    private final Map<UUID, Long> balances = new ConcurrentHashMap<>();
+    private final Map<String, UUID> names = new ConcurrentHashMap<>();
+    private final Map<UUID, String> displayNames = new ConcurrentHashMap<>();
+    private final Deque<TransactionRecord> log = new ArrayDeque<>();
+    private final int logCapacity;
+    private long nextLogId = 1L;
+
+    public MemoryStorage() {
+        this(10000);
+    }
+
+    // Only the newest logCapacity transaction rows are kept
+    public MemoryStorage(int logCapacity) {
+        this.logCapacity = Math.max(0, logCapacity);
+    }
+
+    @Override
+    public void init() {
+    }
+
+    @Override
+    public long load(UUID uuid) {
+        return balances.getOrDefault(uuid, 0L);
+    }
+
+    @Override
+    public Map<UUID, Long> loadBatch(Collection<UUID> uuids) {
+        Map<UUID, Long> result = new HashMap<>();
+        for (UUID uuid : uuids) {
+            Long balance = balances.get(uuid);
+            if (balance != null) result.put(uuid, balance);
+        }
+        return result;
+    }
+
+    @Override
+    public long applyDelta(UUID uuid, long delta) {
+        long[] before = new long[1];
+        balances.compute(uuid, (key, current) -> {
+            before[0] = current == null ? 0L : current;
+            return Math.max(0L, before[0] + delta);
+        });
+        return before[0];
+    }
+
+    @Override
+    public long withdraw(UUID uuid, long amount) {
+        long[] after = {-1L};
+        balances.computeIfPresent(uuid, (key, current) -> {
+            if (current < amount) return current;
+            after[0] = current - amount;
+            return after[0];
+        });
+        return after[0];
+    }
+
+    @Override
+    public long set(UUID uuid, long balance) {
+        Long before = balances.put(uuid, balance);
+        return before == null ? 0L : before;
+    }
+
+    @Override
+    public void forEachBalance(BiConsumer<UUID, Long> action) {
+        balances.forEach(action);
+    }
+
+    @Override
+    public void appendLog(List<TransactionRecord> batch) {
+        if (logCapacity == 0) return;
+        synchronized (log) {
+            for (TransactionRecord record : batch) {
+                if (log.size() >= logCapacity) log.pollFirst();
+                log.addLast(new TransactionRecord(nextLogId++, record.uuid, record.amount, record.balanceBefore,
+                        record.balanceAfter, record.reason, record.timestamp));
+            }
+        }
+    }
+
+    @Override
+    public List<TransactionRecord> loadHistory(UUID uuid, long beforeId, int limit) {
+        List<TransactionRecord> history = new ArrayList<>();
+        synchronized (log) {
+            Iterator<TransactionRecord> newestFirst = log.descendingIterator();
+            while (newestFirst.hasNext() && history.size() < limit) {
+                TransactionRecord record = newestFirst.next();
+                if (record.id < beforeId && record.uuid.equals(uuid)) history.add(record);
+            }
+        }
+        return history;
+    }
+
+    @Override
+    public void forEachTransaction(Consumer<TransactionRecord> action) {
+        getLog().forEach(action);
+    }
+
+    @Override
+    public void saveName(String name, UUID uuid) {
+        names.put(NameIndex.key(name), uuid);
+        displayNames.put(uuid, name);
+    }
+
+    @Override
+    public UUID lookupName(String name) {
+        return names.get(NameIndex.key(name));
+    }
+
+    @Override
+    public Map<UUID, String> loadNames(Collection<UUID> uuids) {
+        Map<UUID, String> result = new HashMap<>();
+        for (UUID uuid : uuids) {
+            String name = displayNames.get(uuid);
+            if (name != null) result.put(uuid, name);
+        }
+        return result;
+    }
+
+    @Override
+    public Map<UUID, Long> loadTop(int limit) {
+        return topOf(balances, limit);
+    }
+
+    // Partial sort with a min-heap, shared with the file ledger
+    static Map<UUID, Long> topOf(Map<UUID, Long> balances, int limit) {
+        PriorityQueue<Map.Entry<UUID, Long>> heap = new PriorityQueue<>(Math.max(1, limit) + 1, Map.Entry.comparingByValue());
+        for (Map.Entry<UUID, Long> e : balances.entrySet()) {
+            if (heap.size() < limit) {
+                heap.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), e.getValue()));
+            } else if (limit > 0 && e.getValue() > heap.peek().getValue()) {
+                heap.poll();
+                heap.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), e.getValue()));
+            }
+        }
+        List<Map.Entry<UUID, Long>> sorted = new ArrayList<>(heap);
+        sorted.sort(Map.Entry.<UUID, Long>comparingByValue().reversed());
+        Map<UUID, Long> top = new LinkedHashMap<>();
+        for (Map.Entry<UUID, Long> e : sorted) {
+            top.put(e.getKey(), e.getValue());
+        }
+        return top;
+    }
+
+    // Newest rows last
+    public List<TransactionRecord> getLog() {
+        synchronized (log) {
+            return new ArrayList<>(log);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.tokens;
+
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Token multiplier tiers from config.yml. A player's multiplier is resolved from their permissions
+// on join and whenever permissions are re-checked, then read from memory on every deposit.
+public class MultiplierTiers {
+    public static final class Tier {
+        public final String permission;
+        public final double multiplier;
+
+        public Tier(String permission, double multiplier) {
+            this.permission = permission;
+            this.multiplier = multiplier;
+        }
+    }
+
+    private volatile List<Tier> tiers = Collections.emptyList();
+    private final Map<UUID, Double> resolved = new ConcurrentHashMap<>();
+
+    // Highest multiplier is checked first
+    public void setTiers(List<Tier> tiers) {
+        List<Tier> sorted = new ArrayList<>(tiers);
+        sorted.sort((a, b) -> Double.compare(b.multiplier, a.multiplier));
+        this.tiers = Collections.unmodifiableList(sorted);
+    }
+
+    public List<Tier> getTiers() {
+        return tiers;
+    }
+
+    // Must run on the main thread, permission checks are not thread-safe
+    public double resolve(Player player) {
+        double multiplier = 1.0;
+        for (Tier tier : tiers) {
+            if (player.hasPermission(tier.permission)) {
+                multiplier = tier.multiplier;
+                break;
+            }
+        }
+        if (multiplier == 1.0) {
+            resolved.remove(player.getUniqueId());
+        } else {
+            resolved.put(player.getUniqueId(), multiplier);
+        }
+        return multiplier;
+    }
+
+    // Safe from any thread; players that are offline or without a tier get 1.0
+    public double get(UUID uuid) {
+        Double multiplier = resolved.get(uuid);
+        return multiplier != null ? multiplier : 1.0;
+    }
+
+    public void forget(UUID uuid) {
+        resolved.remove(uuid);
+    }
+}
@@ -0,0 +1,1113 @@
+package com.example.tokens;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+// MySQL backend. Every query goes through the statements cached on the pooled connection.
+// Player ids are stored as BINARY(16), the UUID's two longs with the most significant first.
+public class MySQLStorage implements TokenStorage {
+    // loadBatch pads the IN list to this size so a single statement serves every batch
+    private static final int BATCH_CHUNK = 50;
+    // Keys read per query while scanning every account
+    private static final int SCAN_CHUNK = 10000;
+    private static final String SELECT_BATCH = "SELECT uuid, balance FROM tokens WHERE uuid IN (" + placeholders(BATCH_CHUNK) + ")";
+    private static final String SELECT_VERSIONED_BATCH = "SELECT uuid, balance, version FROM tokens WHERE uuid IN (" + placeholders(BATCH_CHUNK) + ")";
+    private static final String SELECT_VERSIONS = "SELECT uuid, version FROM tokens WHERE uuid IN (" + placeholders(BATCH_CHUNK) + ")";
+    private static final String SELECT_BATCH_FOR_UPDATE = SELECT_BATCH + " FOR UPDATE";
+    private static final String SELECT_NAMES = "SELECT uuid, name FROM token_names WHERE uuid IN (" + placeholders(BATCH_CHUNK) + ")";
+    private static final String COPY_BALANCES = "INSERT IGNORE INTO tokens (uuid, balance, version) " +
+            "SELECT UNHEX(REPLACE(uuid, '-', '')), balance, version FROM tokens_v1 WHERE uuid IN (" + placeholders(BATCH_CHUNK) + ")";
+    private static final String SELECT_JOURNAL_MARKS = "SELECT uuid, seq FROM token_journal WHERE journal = ? AND uuid IN (" + placeholders(BATCH_CHUNK) + ")";
+    private static final String SELECT_LEGACY_NAMES = "SELECT uuid, name FROM token_names_v1 WHERE uuid IN (" + placeholders(BATCH_CHUNK) + ")";
+
+    // Last schema change, see migrate. Before version 2 player ids were stored as VARCHAR(36)
+    private static final int SCHEMA_VERSION = 3;
+    // Steps of the copy from the version 1 tables, in order
+    private static final int STEP_BALANCES = 0, STEP_NAMES = 1, STEP_LOG = 2, STEP_DAILY = 3, STEP_DONE = 4;
+
+    // Same order as the BINARY(16) primary key
+    private static final Comparator<UUID> KEY_ORDER = (a, b) -> {
+        int high = Long.compareUnsigned(a.getMostSignificantBits(), b.getMostSignificantBits());
+        return high != 0 ? high : Long.compareUnsigned(a.getLeastSignificantBits(), b.getLeastSignificantBits());
+    };
+
+    private static String placeholders(int count) {
+        StringBuilder sql = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        return sql.toString();
+    }
+
+    private final String host, port, database, user, password;
+    private final int poolSize;
+    private final int connectTimeoutMillis, socketTimeoutMillis;
+    private ConnectionPool pool;
+    // First copy step not finished yet; until a step is done its rows may still be in the old tables
+    private volatile int step = STEP_DONE;
+
+    // A database that stops answering without closing the connection fails a query after
+    // socketTimeoutMillis instead of holding its caller forever, 0 waits without limit
+    public MySQLStorage(String host, String port, String database, String user, String password, int poolSize,
+                        int connectTimeoutMillis, int socketTimeoutMillis) {
+        this.host = host;
+        this.port = port;
+        this.database = database;
+        this.user = user;
+        this.password = password;
+        this.poolSize = poolSize;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.socketTimeoutMillis = socketTimeoutMillis;
+    }
+
+    @Override
+    public void init() throws SQLException {
+        // Called again when a failed start is retried
+        if (pool != null) pool.close();
+        pool = new ConnectionPool(
+                "jdbc:mysql://" + host + ":" + port + "/" + database + "?rewriteBatchedStatements=true"
+                        + "&connectTimeout=" + connectTimeoutMillis + "&socketTimeout=" + socketTimeoutMillis,
+                user,
+                password,
+                poolSize,
+                5000L
+        );
+        try (ConnectionPool.Lease lease = pool.borrow()) {
+            Connection connection = lease.connection();
+            // Table changes and waiting for another server's schema lock may take longer than any query
+            connection.setNetworkTimeout(Runnable::run, 0);
+            try {
+                setUpSchema(connection);
+            } finally {
+                connection.setNetworkTimeout(Runnable::run, socketTimeoutMillis);
+            }
+        }
+    }
+
+    private void setUpSchema(Connection connection) throws SQLException {
+        // Servers starting at the same time must not set up or move the tables together.
+        // A named lock, since the DDL below would commit away a row lock
+        try (PreparedStatement ps = connection.prepareStatement("SELECT GET_LOCK('tokens_schema', 30)");
+             ResultSet rs = ps.executeQuery()) {
+            if (!rs.next() || rs.getInt(1) != 1) throw new SQLException("Timed out waiting for the token schema lock");
+        }
+        try {
+            createTables(connection);
+        } finally {
+            try (PreparedStatement ps = connection.prepareStatement("SELECT RELEASE_LOCK('tokens_schema')")) {
+                ps.executeQuery().close();
+            }
+        }
+    }
+
+    // Runs the schema changes this database has not seen yet. token_schema.version is the last one
+    // applied, so a normal start only reads that row; a new change gets the next number in migrate
+    private void createTables(Connection connection) throws SQLException {
+        // Last applied schema change and how far the copy of the previous layout's rows has got
+        try (PreparedStatement ps = connection.prepareStatement(
+                "CREATE TABLE IF NOT EXISTS token_schema (" +
+                        "id TINYINT PRIMARY KEY," +
+                        "version INT NOT NULL," +
+                        "step INT NOT NULL," +
+                        "progress VARCHAR(64) NOT NULL DEFAULT ''" +
+                        ")"
+        )) {
+            ps.executeUpdate();
+        }
+
+        int version = -1;
+        try (PreparedStatement ps = connection.prepareStatement("SELECT version, step FROM token_schema WHERE id = 1");
+             ResultSet rs = ps.executeQuery()) {
+            if (rs.next()) {
+                version = rs.getInt(1);
+                step = rs.getInt(2);
+            }
+        }
+        if (version < 0) {
+            // An empty database gets the current layout right away; tables from before the
+            // schema table was added start at 0 and go through every change
+            boolean fresh = columnType(connection, "tokens", "uuid") == null;
+            if (fresh) createCurrentTables(connection);
+            version = fresh ? SCHEMA_VERSION : 0;
+            step = fresh ? STEP_DONE : STEP_BALANCES;
+            try (PreparedStatement ps = connection.prepareStatement("INSERT INTO token_schema (id, version, step) VALUES (1, ?, ?)")) {
+                ps.setInt(1, version);
+                ps.setInt(2, step);
+                ps.executeUpdate();
+            }
+        }
+        if (version > SCHEMA_VERSION) {
+            throw new SQLException("The token tables were set up by a newer version of the plugin (schema " + version + ")");
+        }
+
+        for (int next = version + 1; next <= SCHEMA_VERSION; next++) {
+            migrate(connection, next);
+            try (PreparedStatement ps = connection.prepareStatement("UPDATE token_schema SET version = ? WHERE id = 1")) {
+                ps.setInt(1, next);
+                ps.executeUpdate();
+            }
+        }
+    }
+
+    // One schema change. DDL commits on its own in MySQL, so each step must be safe to run again
+    // after being cut off halfway
+    private void migrate(Connection connection, int version) throws SQLException {
+        switch (version) {
+            case 1:
+                // Tables, columns and indexes the text id layout gained before changes were tracked
+                upgradeTextIdTables(connection);
+                break;
+            case 2:
+                moveToBinaryIds(connection);
+                break;
+            case 3:
+                createJournalTable(connection);
+                break;
+            default:
+                throw new SQLException("Unknown token schema version " + version);
+        }
+    }
+
+    private void upgradeTextIdTables(Connection connection) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "CREATE TABLE IF NOT EXISTS token_transactions (" +
+                        "id INT AUTO_INCREMENT PRIMARY KEY," +
+                        "uuid VARCHAR(36) NOT NULL," +
+                        "amount BIGINT NOT NULL," +
+                        "balance_before BIGINT NOT NULL," +
+                        "balance_after BIGINT NOT NULL," +
+                        "reason VARCHAR(255)," +
+                        "timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                        ")"
+        )) {
+            ps.executeUpdate();
+        }
+        try (PreparedStatement ps = connection.prepareStatement(
+                "CREATE TABLE IF NOT EXISTS token_transactions_daily (" +
+                        "uuid VARCHAR(36) NOT NULL," +
+                        "day DATE NOT NULL," +
+                        "reason VARCHAR(191) NOT NULL DEFAULT ''," +
+                        "amount BIGINT NOT NULL," +
+                        "count INT NOT NULL," +
+                        "PRIMARY KEY (uuid, day, reason)" +
+                        ")"
+        )) {
+            ps.executeUpdate();
+        }
+        try (PreparedStatement ps = connection.prepareStatement(
+                "CREATE TABLE IF NOT EXISTS token_names (" +
+                        "name VARCHAR(16) PRIMARY KEY," +
+                        "uuid VARCHAR(36) NOT NULL" +
+                        ")"
+        )) {
+            ps.executeUpdate();
+        }
+        // Bumped by every write so servers sharing the table can spot changes they did not make
+        addColumn(connection, "ALTER TABLE tokens ADD COLUMN version BIGINT NOT NULL DEFAULT 0");
+        // History pages by player
+        addIndex(connection, "ALTER TABLE token_transactions ADD INDEX idx_token_transactions_uuid_id (uuid, id)");
+    }
+
+    // Player ids as BINARY(16). The old tables are renamed to *_v1 in one statement, which is instant,
+    // and migrateSchema copies their rows over in chunks while the server keeps running
+    private void moveToBinaryIds(Connection connection) throws SQLException {
+        String type = columnType(connection, "tokens", "uuid");
+        if (type != null && !type.equalsIgnoreCase("binary")) {
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "RENAME TABLE tokens TO tokens_v1, token_transactions TO token_transactions_v1, " +
+                            "token_transactions_daily TO token_transactions_daily_v1, token_names TO token_names_v1")) {
+                ps.executeUpdate();
+            }
+        }
+        createCurrentTables(connection);
+        // Copied transaction rows keep their ids, new ones are numbered after them
+        long nextId = 1L;
+        try (PreparedStatement ps = connection.prepareStatement("SELECT MAX(id) FROM token_transactions_v1");
+             ResultSet rs = ps.executeQuery()) {
+            if (rs.next()) nextId = rs.getLong(1) + 1;
+        }
+        try (PreparedStatement ps = connection.prepareStatement("ALTER TABLE token_transactions AUTO_INCREMENT = " + nextId)) {
+            ps.executeUpdate();
+        }
+    }
+
+    // Tables of the current layout
+    private void createCurrentTables(Connection connection) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "CREATE TABLE IF NOT EXISTS tokens (" +
+                        "uuid BINARY(16) PRIMARY KEY," +
+                        "balance BIGINT NOT NULL DEFAULT 0," +
+                        // Bumped by every write so servers sharing the table can spot changes they did not make
+                        "version BIGINT NOT NULL DEFAULT 0," +
+                        // Leaderboard reads
+                        "INDEX idx_tokens_balance (balance)" +
+                        ")"
+        )) {
+            ps.executeUpdate();
+        }
+
+        try (PreparedStatement ps = connection.prepareStatement(
+                "CREATE TABLE IF NOT EXISTS token_transactions (" +
+                        "id BIGINT AUTO_INCREMENT PRIMARY KEY," +
+                        "uuid BINARY(16) NOT NULL," +
+                        "amount BIGINT NOT NULL," +
+                        "balance_before BIGINT NOT NULL," +
+                        "balance_after BIGINT NOT NULL," +
+                        "reason VARCHAR(255)," +
+                        "timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
+                        // Per-player history pages and the retention job
+                        "INDEX idx_token_transactions_uuid_id (uuid, id)," +
+                        "INDEX idx_token_transactions_timestamp (timestamp)" +
+                        ")"
+        )) {
+            ps.executeUpdate();
+        }
+
+        // Daily totals of transactions removed by the retention job
+        try (PreparedStatement ps = connection.prepareStatement(
+                "CREATE TABLE IF NOT EXISTS token_transactions_daily (" +
+                        "uuid BINARY(16) NOT NULL," +
+                        "day DATE NOT NULL," +
+                        "reason VARCHAR(191) NOT NULL DEFAULT ''," +
+                        "amount BIGINT NOT NULL," +
+                        "count INT NOT NULL," +
+                        "PRIMARY KEY (uuid, day, reason)" +
+                        ")"
+        )) {
+            ps.executeUpdate();
+        }
+
+        // Last known name of every player, for the name based Vault methods.
+        // The default collation compares names case-insensitively
+        try (PreparedStatement ps = connection.prepareStatement(
+                "CREATE TABLE IF NOT EXISTS token_names (" +
+                        "name VARCHAR(16) PRIMARY KEY," +
+                        "uuid BINARY(16) NOT NULL," +
+                        "INDEX idx_token_names_uuid (uuid)" +
+                        ")"
+        )) {
+            ps.executeUpdate();
+        }
+
+        createJournalTable(connection);
+    }
+
+    // Newest local journal record applied per server journal and player
+    private void createJournalTable(Connection connection) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "CREATE TABLE IF NOT EXISTS token_journal (" +
+                        "journal BINARY(16) NOT NULL," +
+                        "uuid BINARY(16) NOT NULL," +
+                        "seq BIGINT NOT NULL," +
+                        "PRIMARY KEY (journal, uuid)" +
+                        ")"
+        )) {
+            ps.executeUpdate();
+        }
+    }
+
+    // DATA_TYPE of a column, or null if the table or column does not exist
+    private static String columnType(Connection connection, String table, String column) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT DATA_TYPE FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND COLUMN_NAME = ?")) {
+            ps.setString(1, table);
+            ps.setString(2, column);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    private void addIndex(Connection connection, String sql) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            // 1061: duplicate key name, the index is already there
+            if (e.getErrorCode() != 1061) throw e;
+        }
+    }
+
+    private void addColumn(Connection connection, String sql) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            // 1060: duplicate column name, the column is already there
+            if (e.getErrorCode() != 1060) throw e;
+        }
+    }
+
+    // Fill the padded IN list of a batch statement with the chunk starting at start
+    private static void bindChunk(PreparedStatement ps, List<UUID> list, int start) throws SQLException {
+        for (int i = 0; i < BATCH_CHUNK; i++) {
+            // Repeat the last id to fill up a short chunk
+            UUID uuid = list.get(Math.min(start + i, list.size() - 1));
+            ps.setBytes(i + 1, bytes(uuid));
+        }
+    }
+
+    // Same for statements on the version 1 tables, which key players by their text form
+    private static void bindLegacyChunk(PreparedStatement ps, List<UUID> list, int start) throws SQLException {
+        for (int i = 0; i < BATCH_CHUNK; i++) {
+            UUID uuid = list.get(Math.min(start + i, list.size() - 1));
+            ps.setString(i + 1, uuid.toString());
+        }
+    }
+
+    static byte[] bytes(UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+
+    static UUID uuid(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    private ConnectionPool.Lease borrow() throws SQLException {
+        if (pool == null) throw new SQLException("No database connection");
+        return pool.borrow();
+    }
+
+    // While balances are still being copied, a player's old row is brought over before it is read or written
+    private void copyBalance(ConnectionPool.Lease lease, UUID uuid) throws SQLException {
+        if (step > STEP_BALANCES) return;
+        PreparedStatement ps = lease.prepare(
+                "INSERT IGNORE INTO tokens (uuid, balance, version) SELECT ?, balance, version FROM tokens_v1 WHERE uuid = ?");
+        ps.setBytes(1, bytes(uuid));
+        ps.setString(2, uuid.toString());
+        ps.executeUpdate();
+    }
+
+    private void copyBalances(ConnectionPool.Lease lease, List<UUID> list) throws SQLException {
+        if (step > STEP_BALANCES) return;
+        PreparedStatement ps = lease.prepare(COPY_BALANCES);
+        for (int start = 0; start < list.size(); start += BATCH_CHUNK) {
+            bindLegacyChunk(ps, list, start);
+            ps.executeUpdate();
+        }
+    }
+
+    @Override
+    public long load(UUID uuid) throws SQLException {
+        try (ConnectionPool.Lease lease = borrow()) {
+            copyBalance(lease, uuid);
+            PreparedStatement ps = lease.prepare("SELECT balance FROM tokens WHERE uuid = ?");
+            ps.setBytes(1, bytes(uuid));
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) return rs.getLong(1);
+            }
+        }
+        return 0L;
+    }
+
+    @Override
+    public Map<UUID, Long> loadBatch(Collection<UUID> uuids) throws SQLException {
+        Map<UUID, Long> balances = new HashMap<>();
+        if (uuids.isEmpty()) return balances;
+        List<UUID> list = new ArrayList<>(uuids);
+        try (ConnectionPool.Lease lease = borrow()) {
+            copyBalances(lease, list);
+            PreparedStatement ps = lease.prepare(SELECT_BATCH);
+            for (int start = 0; start < list.size(); start += BATCH_CHUNK) {
+                bindChunk(ps, list, start);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        balances.put(uuid(rs.getBytes(1)), rs.getLong(2));
+                    }
+                }
+            }
+        }
+        return balances;
+    }
+
+    @Override
+    public long applyDelta(UUID uuid, long delta) throws SQLException {
+        try (ConnectionPool.Lease lease = borrow()) {
+            copyBalance(lease, uuid);
+            if (delta >= 0) {
+                // One upsert; LAST_INSERT_ID(expr) hands the new balance back with the update count
+                PreparedStatement ps = lease.prepare(
+                        "INSERT INTO tokens(uuid,balance,version) VALUES(?,?,1) ON DUPLICATE KEY UPDATE balance = LAST_INSERT_ID(balance + VALUES(balance)), version = version + 1",
+                        Statement.RETURN_GENERATED_KEYS);
+                ps.setBytes(1, bytes(uuid));
+                ps.setLong(2, delta);
+                int updated = ps.executeUpdate();
+                Long key = generatedKey(ps);
+                // No key back means the row was just inserted (or an existing 0 balance stayed 0)
+                long after = key != null ? key : (updated == 2 ? 0L : delta);
+                return after - delta;
+            }
+
+            // Taking tokens away clamps at 0, so lock the row to know the real change
+            Connection connection = lease.connection();
+            connection.setAutoCommit(false);
+            long before = lockBalance(lease, uuid);
+            long after = Math.max(0L, before + delta);
+            if (after != before) {
+                PreparedStatement ps = lease.prepare("UPDATE tokens SET balance = ?, version = version + 1 WHERE uuid = ?");
+                ps.setLong(1, after);
+                ps.setBytes(2, bytes(uuid));
+                ps.executeUpdate();
+            }
+            connection.commit();
+            return before;
+        }
+    }
+
+    // Locks every row, then writes all new balances as one batched upsert in the same transaction
+    @Override
+    public Map<UUID, Long> applyDeltas(Map<UUID, Long> deltas) throws SQLException {
+        Map<UUID, Long> before = new HashMap<>();
+        if (deltas.isEmpty()) return before;
+        // Same order as the primary key, so overlapping batches lock rows in the same order
+        List<UUID> list = new ArrayList<>(deltas.keySet());
+        list.sort(KEY_ORDER);
+        try (ConnectionPool.Lease lease = borrow()) {
+            copyBalances(lease, list);
+            Connection connection = lease.connection();
+            connection.setAutoCommit(false);
+            Map<UUID, Long> current = new HashMap<>();
+            PreparedStatement lock = lease.prepare(SELECT_BATCH_FOR_UPDATE);
+            for (int start = 0; start < list.size(); start += BATCH_CHUNK) {
+                bindChunk(lock, list, start);
+                try (ResultSet rs = lock.executeQuery()) {
+                    while (rs.next()) {
+                        current.put(uuid(rs.getBytes(1)), rs.getLong(2));
+                    }
+                }
+            }
+
+            PreparedStatement ps = lease.prepare("INSERT INTO tokens(uuid,balance,version) VALUES(?,?,1) ON DUPLICATE KEY UPDATE balance = VALUES(balance), version = version + 1");
+            try {
+                for (UUID uuid : list) {
+                    long balance = current.getOrDefault(uuid, 0L);
+                    before.put(uuid, balance);
+                    ps.setBytes(1, bytes(uuid));
+                    ps.setLong(2, Math.max(0L, balance + deltas.get(uuid)));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            } finally {
+                ps.clearBatch();
+            }
+            connection.commit();
+        }
+        return before;
+    }
+
+    @Override
+    public long withdraw(UUID uuid, long amount) throws SQLException {
+        try (ConnectionPool.Lease lease = borrow()) {
+            copyBalance(lease, uuid);
+            // The balance check and the deduction are one statement, so concurrent withdrawals cannot overdraw
+            PreparedStatement ps = lease.prepare(
+                    "UPDATE tokens SET balance = LAST_INSERT_ID(balance - ?), version = version + 1 WHERE uuid = ? AND balance >= ?",
+                    Statement.RETURN_GENERATED_KEYS);
+            ps.setLong(1, amount);
+            ps.setBytes(2, bytes(uuid));
+            ps.setLong(3, amount);
+            if (ps.executeUpdate() == 0) return -1L;
+            Long key = generatedKey(ps);
+            return key != null ? key : 0L;
+        }
+    }
+
+    @Override
+    public long set(UUID uuid, long balance) throws SQLException {
+        try (ConnectionPool.Lease lease = borrow()) {
+            copyBalance(lease, uuid);
+            Connection connection = lease.connection();
+            connection.setAutoCommit(false);
+            long before = lockBalance(lease, uuid);
+            PreparedStatement ps = lease.prepare("INSERT INTO tokens(uuid,balance,version) VALUES(?,?,1) ON DUPLICATE KEY UPDATE balance = VALUES(balance), version = version + 1");
+            ps.setBytes(1, bytes(uuid));
+            ps.setLong(2, balance);
+            ps.executeUpdate();
+            connection.commit();
+            return before;
+        }
+    }
+
+    @Override
+    public VersionedBalance loadVersioned(UUID uuid) throws SQLException {
+        try (ConnectionPool.Lease lease = borrow()) {
+            copyBalance(lease, uuid);
+            PreparedStatement ps = lease.prepare("SELECT balance, version FROM tokens WHERE uuid = ?");
+            ps.setBytes(1, bytes(uuid));
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) return new VersionedBalance(rs.getLong(1), rs.getLong(2));
+            }
+        }
+        return new VersionedBalance(0L, 0L);
+    }
+
+    @Override
+    public Map<UUID, VersionedBalance> loadVersionedBatch(Collection<UUID> uuids) throws SQLException {
+        Map<UUID, VersionedBalance> balances = new HashMap<>();
+        if (uuids.isEmpty()) return balances;
+        List<UUID> list = new ArrayList<>(uuids);
+        try (ConnectionPool.Lease lease = borrow()) {
+            copyBalances(lease, list);
+            PreparedStatement ps = lease.prepare(SELECT_VERSIONED_BATCH);
+            for (int start = 0; start < list.size(); start += BATCH_CHUNK) {
+                bindChunk(ps, list, start);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        balances.put(uuid(rs.getBytes(1)), new VersionedBalance(rs.getLong(2), rs.getLong(3)));
+                    }
+                }
+            }
+        }
+        return balances;
+    }
+
+    @Override
+    public Map<UUID, Long> loadVersions(Collection<UUID> uuids) throws SQLException {
+        Map<UUID, Long> versions = new HashMap<>();
+        if (uuids.isEmpty()) return versions;
+        List<UUID> list = new ArrayList<>(uuids);
+        try (ConnectionPool.Lease lease = borrow()) {
+            copyBalances(lease, list);
+            PreparedStatement ps = lease.prepare(SELECT_VERSIONS);
+            for (int start = 0; start < list.size(); start += BATCH_CHUNK) {
+                bindChunk(ps, list, start);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        versions.put(uuid(rs.getBytes(1)), rs.getLong(2));
+                    }
+                }
+            }
+        }
+        return versions;
+    }
+
+    @Override
+    public long compareAndSet(UUID uuid, long expectedVersion, long balance) throws SQLException {
+        try (ConnectionPool.Lease lease = borrow()) {
+            copyBalance(lease, uuid);
+            return compareAndSet(lease, uuid, expectedVersion, balance);
+        }
+    }
+
+    @Override
+    public long compareAndSet(UUID uuid, long expectedVersion, long balance, UUID journal, long seq) throws SQLException {
+        try (ConnectionPool.Lease lease = borrow()) {
+            copyBalance(lease, uuid);
+            Connection connection = lease.connection();
+            connection.setAutoCommit(false);
+            long version = compareAndSet(lease, uuid, expectedVersion, balance);
+            if (version >= 0) markJournal(lease, journal, uuid, seq);
+            connection.commit();
+            return version;
+        }
+    }
+
+    private long compareAndSet(ConnectionPool.Lease lease, UUID uuid, long expectedVersion, long balance) throws SQLException {
+        PreparedStatement ps = lease.prepare("UPDATE tokens SET balance = ?, version = version + 1 WHERE uuid = ? AND version = ?");
+        ps.setLong(1, balance);
+        ps.setBytes(2, bytes(uuid));
+        ps.setLong(3, expectedVersion);
+        if (ps.executeUpdate() == 1) return expectedVersion + 1;
+        if (expectedVersion != 0L) return -1L;
+
+        // Version 0 means there was no row when the balance was loaded; fails if another server created it since
+        PreparedStatement insert = lease.prepare("INSERT IGNORE INTO tokens(uuid,balance,version) VALUES(?,?,1)");
+        insert.setBytes(1, bytes(uuid));
+        insert.setLong(2, balance);
+        return insert.executeUpdate() == 1 ? 1L : -1L;
+    }
+
+    // Returns -1 without writing anything if the journal record was applied before
+    @Override
+    public long applyDelta(UUID uuid, long delta, UUID journal, long seq) throws SQLException {
+        try (ConnectionPool.Lease lease = borrow()) {
+            copyBalance(lease, uuid);
+            Connection connection = lease.connection();
+            connection.setAutoCommit(false);
+            PreparedStatement applied = lease.prepare("SELECT seq FROM token_journal WHERE journal = ? AND uuid = ? FOR UPDATE");
+            applied.setBytes(1, bytes(journal));
+            applied.setBytes(2, bytes(uuid));
+            try (ResultSet rs = applied.executeQuery()) {
+                if (rs.next() && rs.getLong(1) >= seq) {
+                    connection.commit();
+                    return -1L;
+                }
+            }
+            long before = lockBalance(lease, uuid);
+            PreparedStatement ps = lease.prepare("INSERT INTO tokens(uuid,balance,version) VALUES(?,?,1) ON DUPLICATE KEY UPDATE balance = VALUES(balance), version = version + 1");
+            ps.setBytes(1, bytes(uuid));
+            ps.setLong(2, Math.max(0L, before + delta));
+            ps.executeUpdate();
+            markJournal(lease, journal, uuid, seq);
+            connection.commit();
+            return before;
+        }
+    }
+
+    private void markJournal(ConnectionPool.Lease lease, UUID journal, UUID uuid, long seq) throws SQLException {
+        PreparedStatement ps = lease.prepare(
+                "INSERT INTO token_journal (journal, uuid, seq) VALUES (?, ?, ?) ON DUPLICATE KEY UPDATE seq = GREATEST(seq, VALUES(seq))");
+        ps.setBytes(1, bytes(journal));
+        ps.setBytes(2, bytes(uuid));
+        ps.setLong(3, seq);
+        ps.executeUpdate();
+    }
+
+    @Override
+    public Map<UUID, Long> loadJournalMarks(UUID journal, Collection<UUID> uuids) throws SQLException {
+        Map<UUID, Long> marks = new HashMap<>();
+        if (uuids.isEmpty()) return marks;
+        List<UUID> list = new ArrayList<>(uuids);
+        try (ConnectionPool.Lease lease = borrow()) {
+            PreparedStatement ps = lease.prepare(SELECT_JOURNAL_MARKS);
+            ps.setBytes(1, bytes(journal));
+            for (int start = 0; start < list.size(); start += BATCH_CHUNK) {
+                for (int i = 0; i < BATCH_CHUNK; i++) {
+                    UUID uuid = list.get(Math.min(start + i, list.size() - 1));
+                    ps.setBytes(i + 2, bytes(uuid));
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        marks.put(uuid(rs.getBytes(1)), rs.getLong(2));
+                    }
+                }
+            }
+        }
+        return marks;
+    }
+
+    @Override
+    public void dropJournalMarks(UUID journal) throws SQLException {
+        try (ConnectionPool.Lease lease = borrow()) {
+            // Small deletes, so no single transaction holds many locks
+            PreparedStatement ps = lease.prepare("DELETE FROM token_journal WHERE journal = ? LIMIT 1000");
+            ps.setBytes(1, bytes(journal));
+            int deleted;
+            do {
+                deleted = ps.executeUpdate();
+            } while (deleted > 0);
+        }
+    }
+
+    private long lockBalance(ConnectionPool.Lease lease, UUID uuid) throws SQLException {
+        PreparedStatement ps = lease.prepare("SELECT balance FROM tokens WHERE uuid = ? FOR UPDATE");
+        ps.setBytes(1, bytes(uuid));
+        try (ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0L;
+        }
+    }
+
+    // MySQL leaves out the generated key when LAST_INSERT_ID(expr) evaluates to 0
+    private static Long generatedKey(PreparedStatement ps) throws SQLException {
+        try (ResultSet keys = ps.getGeneratedKeys()) {
+            return keys.next() ? keys.getLong(1) : null;
+        }
+    }
+
+    @Override
+    public void appendLog(List<TransactionRecord> batch) throws SQLException {
+        try (ConnectionPool.Lease lease = borrow()) {
+            PreparedStatement ps = lease.prepare(
+                    "INSERT INTO token_transactions (uuid, amount, balance_before, balance_after, reason, timestamp) VALUES (?, ?, ?, ?, ?, ?)");
+            try {
+                for (TransactionRecord record : batch) {
+                    ps.setBytes(1, bytes(record.uuid));
+                    ps.setLong(2, record.amount);
+                    ps.setLong(3, record.balanceBefore);
+                    ps.setLong(4, record.balanceAfter);
+                    ps.setString(5, record.reason);
+                    ps.setTimestamp(6, new Timestamp(record.timestamp));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            } finally {
+                ps.clearBatch();
+            }
+        }
+    }
+
+    @Override
+    public List<TransactionRecord> loadHistory(UUID uuid, long beforeId, int limit) throws SQLException {
+        // Newest first; copied rows keep their id, so a row found in both tables is only listed once
+        Map<Long, TransactionRecord> rows = new TreeMap<>(Comparator.reverseOrder());
+        try (ConnectionPool.Lease lease = borrow()) {
+            // Range scan on (uuid, id), the cost does not depend on how far back the page is
+            PreparedStatement ps = lease.prepare(
+                    "SELECT id, amount, balance_before, balance_after, reason, timestamp FROM token_transactions WHERE uuid = ? AND id < ? ORDER BY id DESC LIMIT ?");
+            ps.setBytes(1, bytes(uuid));
+            ps.setLong(2, beforeId);
+            ps.setInt(3, limit);
+            readHistory(ps, uuid, rows);
+            if (step <= STEP_LOG) {
+                // Rows not copied yet are still in the old table
+                PreparedStatement legacy = lease.prepare(
+                        "SELECT id, amount, balance_before, balance_after, reason, timestamp FROM token_transactions_v1 WHERE uuid = ? AND id < ? ORDER BY id DESC LIMIT ?");
+                legacy.setString(1, uuid.toString());
+                legacy.setLong(2, beforeId);
+                legacy.setInt(3, limit);
+                readHistory(legacy, uuid, rows);
+            }
+        }
+        List<TransactionRecord> history = new ArrayList<>(Math.min(limit, rows.size()));
+        for (TransactionRecord record : rows.values()) {
+            if (history.size() >= limit) break;
+            history.add(record);
+        }
+        return history;
+    }
+
+    private static void readHistory(PreparedStatement ps, UUID uuid, Map<Long, TransactionRecord> rows) throws SQLException {
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                Timestamp timestamp = rs.getTimestamp(6);
+                rows.put(rs.getLong(1), new TransactionRecord(rs.getLong(1), uuid, rs.getLong(2), rs.getLong(3), rs.getLong(4),
+                        rs.getString(5), timestamp != null ? timestamp.getTime() : 0L));
+            }
+        }
+    }
+
+    @Override
+    public int rollupHistory(long cutoffMillis, int chunk) throws SQLException {
+        // Old rows are rolled up once the migration has copied them and their daily totals
+        if (step < STEP_DONE) return 0;
+        try (ConnectionPool.Lease lease = borrow()) {
+            Connection connection = lease.connection();
+            Timestamp cutoff = new Timestamp(cutoffMillis);
+
+            // Oldest rows first; the chunk ends at the highest id found, so rollup and delete see the same rows
+            long lastId = -1L;
+            PreparedStatement ids = lease.prepare("SELECT id FROM token_transactions WHERE timestamp < ? ORDER BY id LIMIT ?");
+            ids.setTimestamp(1, cutoff);
+            ids.setInt(2, chunk);
+            try (ResultSet rs = ids.executeQuery()) {
+                while (rs.next()) lastId = rs.getLong(1);
+            }
+            if (lastId < 0) return 0;
+
+            connection.setAutoCommit(false);
+            PreparedStatement rollup = lease.prepare(
+                    "INSERT INTO token_transactions_daily (uuid, day, reason, amount, count) " +
+                            "SELECT uuid, DATE(timestamp), LEFT(COALESCE(reason, ''), 191), SUM(amount), COUNT(*) FROM token_transactions " +
+                            "WHERE id <= ? AND timestamp < ? GROUP BY uuid, DATE(timestamp), LEFT(COALESCE(reason, ''), 191) " +
+                            "ON DUPLICATE KEY UPDATE amount = amount + VALUES(amount), count = count + VALUES(count)");
+            rollup.setLong(1, lastId);
+            rollup.setTimestamp(2, cutoff);
+            rollup.executeUpdate();
+            PreparedStatement delete = lease.prepare("DELETE FROM token_transactions WHERE id <= ? AND timestamp < ?");
+            delete.setLong(1, lastId);
+            delete.setTimestamp(2, cutoff);
+            int removed = delete.executeUpdate();
+            connection.commit();
+            return removed;
+        }
+    }
+
+    // Copies the next chunk of version 1 rows. Each chunk and its progress are committed together,
+    // and the locked schema row keeps servers sharing the database from copying the same chunk
+    @Override
+    public boolean migrateSchema(int chunk) throws SQLException {
+        if (step >= STEP_DONE) return false;
+        try (ConnectionPool.Lease lease = borrow()) {
+            Connection connection = lease.connection();
+            connection.setAutoCommit(false);
+            PreparedStatement state = lease.prepare("SELECT step, progress FROM token_schema WHERE id = 1 FOR UPDATE");
+            int current;
+            String progress;
+            try (ResultSet rs = state.executeQuery()) {
+                if (!rs.next()) return false;
+                current = rs.getInt(1);
+                progress = rs.getString(2);
+            }
+            if (current < STEP_DONE) {
+                String next = copyChunk(lease, current, progress, chunk);
+                if (next == null) current++;
+                PreparedStatement save = lease.prepare("UPDATE token_schema SET step = ?, progress = ? WHERE id = 1");
+                save.setInt(1, current);
+                save.setString(2, next != null ? next : "");
+                save.executeUpdate();
+            }
+            connection.commit();
+            step = current;
+            return current < STEP_DONE;
+        }
+    }
+
+    // Copies the rows of one step after progress, the last key copied. Returns the new last key,
+    // or null once the step has nothing left
+    private String copyChunk(ConnectionPool.Lease lease, int step, String progress, int chunk) throws SQLException {
+        switch (step) {
+            case STEP_BALANCES:
+                // Rows already brought over by copyBalance are newer and kept
+                return copyRange(lease, progress, chunk,
+                        "SELECT uuid FROM tokens_v1 WHERE uuid > ? ORDER BY uuid LIMIT ?",
+                        "INSERT IGNORE INTO tokens (uuid, balance, version) " +
+                                "SELECT UNHEX(REPLACE(uuid, '-', '')), balance, version FROM tokens_v1 WHERE uuid > ? AND uuid <= ?");
+            case STEP_NAMES:
+                return copyRange(lease, progress, chunk,
+                        "SELECT name FROM token_names_v1 WHERE name > ? ORDER BY name LIMIT ?",
+                        "INSERT IGNORE INTO token_names (name, uuid) " +
+                                "SELECT name, UNHEX(REPLACE(uuid, '-', '')) FROM token_names_v1 WHERE name > ? AND name <= ?");
+            case STEP_LOG:
+                return copyRange(lease, progress.isEmpty() ? 0L : Long.parseLong(progress), chunk,
+                        "SELECT id FROM token_transactions_v1 WHERE id > ? ORDER BY id LIMIT ?",
+                        "INSERT IGNORE INTO token_transactions (id, uuid, amount, balance_before, balance_after, reason, timestamp) " +
+                                "SELECT id, UNHEX(REPLACE(uuid, '-', '')), amount, balance_before, balance_after, reason, timestamp " +
+                                "FROM token_transactions_v1 WHERE id > ? AND id <= ?");
+            case STEP_DAILY:
+                // A chunk covers whole players, so no player's totals are split between two chunks
+                return copyRange(lease, progress, chunk,
+                        "SELECT DISTINCT uuid FROM token_transactions_daily_v1 WHERE uuid > ? ORDER BY uuid LIMIT ?",
+                        "INSERT INTO token_transactions_daily (uuid, day, reason, amount, count) " +
+                                "SELECT UNHEX(REPLACE(uuid, '-', '')), day, reason, amount, count FROM token_transactions_daily_v1 " +
+                                "WHERE uuid > ? AND uuid <= ? " +
+                                "ON DUPLICATE KEY UPDATE amount = amount + VALUES(amount), count = count + VALUES(count)");
+            default:
+                return null;
+        }
+    }
+
+    private static String copyRange(ConnectionPool.Lease lease, Object after, int chunk, String selectKeys, String copy) throws SQLException {
+        Object last = null;
+        PreparedStatement keys = lease.prepare(selectKeys);
+        keys.setObject(1, after);
+        keys.setInt(2, chunk);
+        try (ResultSet rs = keys.executeQuery()) {
+            while (rs.next()) last = rs.getObject(1);
+        }
+        if (last == null) return null;
+        PreparedStatement ps = lease.prepare(copy);
+        ps.setObject(1, after);
+        ps.setObject(2, last);
+        ps.executeUpdate();
+        return last.toString();
+    }
+
+    @Override
+    public void saveName(String name, UUID uuid) throws SQLException {
+        try (ConnectionPool.Lease lease = borrow()) {
+            PreparedStatement ps = lease.prepare("INSERT INTO token_names(name,uuid) VALUES(?,?) ON DUPLICATE KEY UPDATE name = VALUES(name), uuid = VALUES(uuid)");
+            ps.setString(1, name);
+            ps.setBytes(2, bytes(uuid));
+            ps.executeUpdate();
+        }
+    }
+
+    @Override
+    public UUID lookupName(String name) throws SQLException {
+        try (ConnectionPool.Lease lease = borrow()) {
+            PreparedStatement ps = lease.prepare("SELECT uuid FROM token_names WHERE name = ?");
+            ps.setString(1, name);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) return uuid(rs.getBytes(1));
+            }
+            if (step > STEP_NAMES) return null;
+            PreparedStatement legacy = lease.prepare("SELECT uuid FROM token_names_v1 WHERE name = ?");
+            legacy.setString(1, name);
+            try (ResultSet rs = legacy.executeQuery()) {
+                return rs.next() ? UUID.fromString(rs.getString(1)) : null;
+            }
+        }
+    }
+
+    @Override
+    public Map<UUID, String> loadNames(Collection<UUID> uuids) throws SQLException {
+        Map<UUID, String> names = new HashMap<>();
+        if (uuids.isEmpty()) return names;
+        List<UUID> list = new ArrayList<>(uuids);
+        try (ConnectionPool.Lease lease = borrow()) {
+            PreparedStatement ps = lease.prepare(SELECT_NAMES);
+            for (int start = 0; start < list.size(); start += BATCH_CHUNK) {
+                bindChunk(ps, list, start);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        names.put(uuid(rs.getBytes(1)), rs.getString(2));
+                    }
+                }
+            }
+            if (step <= STEP_NAMES) {
+                List<UUID> missing = new ArrayList<>();
+                for (UUID uuid : list) {
+                    if (!names.containsKey(uuid)) missing.add(uuid);
+                }
+                PreparedStatement legacy = lease.prepare(SELECT_LEGACY_NAMES);
+                for (int start = 0; start < missing.size(); start += BATCH_CHUNK) {
+                    bindLegacyChunk(legacy, missing, start);
+                    try (ResultSet rs = legacy.executeQuery()) {
+                        while (rs.next()) {
+                            names.put(UUID.fromString(rs.getString(1)), rs.getString(2));
+                        }
+                    }
+                }
+            }
+        }
+        return names;
+    }
+
+    @Override
+    public Map<UUID, Long> loadTop(int limit) throws SQLException {
+        Map<UUID, Long> top = new LinkedHashMap<>();
+        try (ConnectionPool.Lease lease = borrow()) {
+            PreparedStatement ps;
+            if (step <= STEP_BALANCES) {
+                // Balances not copied yet count as well
+                ps = lease.prepare("SELECT uuid, balance FROM tokens UNION ALL " +
+                        "SELECT UNHEX(REPLACE(o.uuid, '-', '')), o.balance FROM tokens_v1 o " +
+                        "WHERE NOT EXISTS (SELECT 1 FROM tokens n WHERE n.uuid = UNHEX(REPLACE(o.uuid, '-', ''))) " +
+                        "ORDER BY balance DESC LIMIT ?");
+            } else {
+                ps = lease.prepare("SELECT uuid, balance FROM tokens ORDER BY balance DESC LIMIT ?");
+            }
+            ps.setInt(1, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    top.put(uuid(rs.getBytes(1)), rs.getLong(2));
+                }
+            }
+        }
+        return top;
+    }
+
+    @Override
+    public long countAccounts() throws SQLException {
+        try (ConnectionPool.Lease lease = borrow()) {
+            long count = 0L;
+            // Balances not copied yet are counted twice at worst, which only makes the filter roomier
+            String[] tables = step <= STEP_BALANCES ? new String[]{"tokens", "tokens_v1"} : new String[]{"tokens"};
+            for (String table : tables) {
+                try (ResultSet rs = lease.prepare("SELECT COUNT(*) FROM " + table).executeQuery()) {
+                    if (rs.next()) count += rs.getLong(1);
+                }
+            }
+            return count;
+        }
+    }
+
+    @Override
+    public void forEachAccount(Consumer<UUID> action) throws SQLException {
+        boolean legacy = step <= STEP_BALANCES;
+        // One primary key range per query, so no connection is held for the whole scan
+        byte[] after = new byte[0];
+        int rows;
+        do {
+            rows = 0;
+            try (ConnectionPool.Lease lease = borrow()) {
+                PreparedStatement ps = lease.prepare("SELECT uuid FROM tokens WHERE uuid > ? ORDER BY uuid LIMIT " + SCAN_CHUNK);
+                ps.setBytes(1, after);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        after = rs.getBytes(1);
+                        action.accept(uuid(after));
+                        rows++;
+                    }
+                }
+            }
+        } while (rows == SCAN_CHUNK);
+        if (!legacy) return;
+        String legacyAfter = "";
+        do {
+            rows = 0;
+            try (ConnectionPool.Lease lease = borrow()) {
+                PreparedStatement ps = lease.prepare("SELECT uuid FROM tokens_v1 WHERE uuid > ? ORDER BY uuid LIMIT " + SCAN_CHUNK);
+                ps.setString(1, legacyAfter);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        legacyAfter = rs.getString(1);
+                        try {
+                            action.accept(UUID.fromString(legacyAfter));
+                        } catch (IllegalArgumentException ignored) {
+                            // Not a player id, skipped by the migration as well
+                        }
+                        rows++;
+                    }
+                }
+            }
+        } while (rows == SCAN_CHUNK);
+    }
+
+    @Override
+    public void forEachBalance(BiConsumer<UUID, Long> action) throws SQLException {
+        if (step <= STEP_BALANCES) throw new IllegalStateException("Balances are still being moved to the current tables, try again once that finished");
+        byte[] after = new byte[0];
+        int rows;
+        do {
+            rows = 0;
+            try (ConnectionPool.Lease lease = borrow()) {
+                PreparedStatement ps = lease.prepare("SELECT uuid, balance FROM tokens WHERE uuid > ? ORDER BY uuid LIMIT " + SCAN_CHUNK);
+                ps.setBytes(1, after);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        after = rs.getBytes(1);
+                        action.accept(uuid(after), rs.getLong(2));
+                        rows++;
+                    }
+                }
+            }
+        } while (rows == SCAN_CHUNK);
+    }
+
+    @Override
+    public void forEachTransaction(Consumer<TransactionRecord> action) throws SQLException {
+        if (step <= STEP_LOG) throw new IllegalStateException("Transactions are still being moved to the current tables, try again once that finished");
+        long after = 0L;
+        int rows;
+        do {
+            rows = 0;
+            try (ConnectionPool.Lease lease = borrow()) {
+                PreparedStatement ps = lease.prepare("SELECT id, uuid, amount, balance_before, balance_after, reason, timestamp " +
+                        "FROM token_transactions WHERE id > ? ORDER BY id LIMIT " + SCAN_CHUNK);
+                ps.setLong(1, after);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        after = rs.getLong(1);
+                        Timestamp timestamp = rs.getTimestamp(7);
+                        action.accept(new TransactionRecord(after, uuid(rs.getBytes(2)), rs.getLong(3), rs.getLong(4), rs.getLong(5),
+                                rs.getString(6), timestamp != null ? timestamp.getTime() : 0L));
+                        rows++;
+                    }
+                }
+            }
+        } while (rows == SCAN_CHUNK);
+    }
+
+    @Override
+    public void setBalances(Map<UUID, Long> balances) throws SQLException {
+        if (balances.isEmpty()) return;
+        try (ConnectionPool.Lease lease = borrow()) {
+            // Sent as one multi-row insert (rewriteBatchedStatements), rows not copied yet are overwritten as well
+            PreparedStatement ps = lease.prepare("INSERT INTO tokens(uuid,balance,version) VALUES(?,?,1) ON DUPLICATE KEY UPDATE balance = VALUES(balance), version = version + 1");
+            try {
+                for (Map.Entry<UUID, Long> e : balances.entrySet()) {
+                    ps.setBytes(1, bytes(e.getKey()));
+                    ps.setLong(2, Math.max(0L, e.getValue()));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            } finally {
+                ps.clearBatch();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) pool.close();
+    }
+}
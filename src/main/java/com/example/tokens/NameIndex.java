@@ -0,0 +1,106 @@
+package com.example.tokens;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Resolves player names to their real UUIDs for the name based Vault methods, and back for display.
+// Online players are always known; other names sit in an LRU filled from joins and lookups.
+// Names storage did not know are remembered for a while too, so they are not looked up on every call.
+// Names are matched case-insensitively, the same way Minecraft treats them.
+public class NameIndex {
+    // A name no player had may be taken by a player joining another server in the meantime
+    private static final long UNKNOWN_MILLIS = 60000L;
+
+    private final Map<String, UUID> online = new ConcurrentHashMap<>();
+    private final Map<UUID, String> onlineNames = new ConcurrentHashMap<>();
+    private final Map<String, UUID> recent;
+    private final Map<UUID, String> recentNames;
+    // Name to the time it may be looked up again
+    private final Map<String, Long> unknown;
+
+    public NameIndex(int capacity) {
+        int max = Math.max(16, capacity);
+        this.recent = new LinkedHashMap<String, UUID>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, UUID> eldest) {
+                return size() > max;
+            }
+        };
+        this.recentNames = new LinkedHashMap<UUID, String>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, String> eldest) {
+                return size() > max;
+            }
+        };
+        this.unknown = new LinkedHashMap<String, Long>(64, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > max;
+            }
+        };
+    }
+
+    static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    // Returns null when the name is not in memory
+    public UUID get(String name) {
+        String key = key(name);
+        UUID uuid = online.get(key);
+        if (uuid != null) return uuid;
+        synchronized (recent) {
+            return recent.get(key);
+        }
+    }
+
+    // Display name of a player, or null when it is not in memory
+    public String nameOf(UUID uuid) {
+        String name = onlineNames.get(uuid);
+        if (name != null) return name;
+        synchronized (recent) {
+            return recentNames.get(uuid);
+        }
+    }
+
+    public void put(String name, UUID uuid) {
+        synchronized (recent) {
+            recent.put(key(name), uuid);
+            recentNames.put(uuid, name);
+            unknown.remove(key(name));
+        }
+    }
+
+    // Storage has no player with this name
+    public void putUnknown(String name) {
+        synchronized (recent) {
+            unknown.put(key(name), System.currentTimeMillis() + UNKNOWN_MILLIS);
+        }
+    }
+
+    // True while the name is known to belong to no player
+    public boolean isUnknown(String name) {
+        String key = key(name);
+        synchronized (recent) {
+            Long until = unknown.get(key);
+            if (until == null) return false;
+            if (until > System.currentTimeMillis()) return true;
+            unknown.remove(key);
+            return false;
+        }
+    }
+
+    public void online(String name, UUID uuid) {
+        online.put(key(name), uuid);
+        onlineNames.put(uuid, name);
+        put(name, uuid);
+    }
+
+    public void offline(String name) {
+        UUID uuid = online.remove(key(name));
+        if (uuid != null) onlineNames.remove(uuid);
+    }
+}
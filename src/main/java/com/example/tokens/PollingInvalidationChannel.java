@@ -0,0 +1,51 @@
+package com.example.tokens;
+
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+// Finds changes made by other servers by reading the row versions of all cached balances
+// in one batched query per interval. Needs no proxy, but a change can take up to one
+// interval to show up. Publishing is a no-op since peers poll the table themselves.
+public class PollingInvalidationChannel implements InvalidationChannel {
+    private final Plugin plugin;
+    private final TokenStorage storage;
+    private final Supplier<Collection<UUID>> cached;
+    private final long intervalTicks;
+    private BukkitTask task;
+
+    public PollingInvalidationChannel(Plugin plugin, TokenStorage storage, Supplier<Collection<UUID>> cached, long intervalSeconds) {
+        this.plugin = plugin;
+        this.storage = storage;
+        this.cached = cached;
+        this.intervalTicks = Math.max(1L, intervalSeconds) * 20L;
+    }
+
+    @Override
+    public void start(Receiver receiver) {
+        task = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, () -> {
+            Collection<UUID> uuids = cached.get();
+            if (uuids.isEmpty()) return;
+            try {
+                for (Map.Entry<UUID, Long> e : storage.loadVersions(uuids).entrySet()) {
+                    receiver.onInvalidate(e.getKey(), e.getValue());
+                }
+            } catch (Exception e) {
+                plugin.getLogger().warning("Failed to poll balance versions: " + e.getMessage());
+            }
+        }, intervalTicks, intervalTicks);
+    }
+
+    @Override
+    public void publish(UUID uuid, long version) {
+    }
+
+    @Override
+    public void close() {
+        if (task != null) task.cancel();
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.tokens;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+// Non-blocking token API for integrations that can work with futures, registered in the
+// ServicesManager next to the Vault provider. Futures complete on a worker thread, or right
+// away when the player's balance is in memory. Chain with mainThread() to get back onto the
+// server thread, e.g. withdrawAsync(...).thenAcceptAsync(result -> ..., api.mainThread()).
+// Calls made while storage is still starting are queued and run once it is ready.
+public interface TokenEconomyApi {
+    // Fails with TokenService.StorageUnavailableException if the balance is not cached and storage
+    // cannot be read, never completes with a guessed 0
+    CompletableFuture<Long> getBalanceAsync(UUID uuid);
+
+    // Takes the tokens only if the balance covers all of them
+    CompletableFuture<TokenResult> withdrawAsync(UUID uuid, long amount, String reason);
+
+    CompletableFuture<TokenResult> withdrawAsync(String playerName, long amount, String reason);
+
+    // Adds the tokens with the player's multiplier applied, like the Vault deposit
+    CompletableFuture<TokenResult> depositAsync(UUID uuid, long amount, String reason);
+
+    CompletableFuture<TokenResult> depositAsync(String playerName, long amount, String reason);
+
+    // Deposits for several players in one storage batch, e.g. at the end of a match.
+    // Completes with the new balance of every player, -1 for those that could not be updated
+    CompletableFuture<Map<UUID, Long>> depositAllAsync(Map<UUID, Long> amounts, String reason);
+
+    // Receive every balance change (player, old and new balance, reason) in batches on a background
+    // thread, instead of polling balances. Cancel the subscription when disabling
+    BalanceChangeFeed.Subscription subscribe(Consumer<List<BalanceChange>> subscriber);
+
+    // Completes once storage has started, exceptionally if it failed to. Failed starts are retried,
+    // so call again later for a future that follows the current attempt
+    CompletableFuture<Void> whenReady();
+
+    // Runs tasks on the server thread, directly when already on it
+    Executor mainThread();
+}
@@ -0,0 +1,131 @@
+package com.example.tokens;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// TokenEconomyApi on top of TokenService. Online players are served from the balance cache
+// without leaving the calling thread; everyone else goes through the worker pool.
+public class TokenEconomyProvider implements TokenEconomyApi {
+    private final TokenService service;
+    private final Executor mainThread;
+
+    public TokenEconomyProvider(Plugin plugin, TokenService service) {
+        this.service = service;
+        this.mainThread = task -> {
+            if (Bukkit.isPrimaryThread()) {
+                task.run();
+            } else {
+                Bukkit.getScheduler().runTask(plugin, task);
+            }
+        };
+    }
+
+    @Override
+    public CompletableFuture<Long> getBalanceAsync(UUID uuid) {
+        return service.getBalance(uuid);
+    }
+
+    @Override
+    public CompletableFuture<TokenResult> withdrawAsync(UUID uuid, long amount, String reason) {
+        if (amount < 0) return CompletableFuture.completedFuture(TokenResult.failure("Cannot withdraw a negative amount"));
+        return run(uuid, () -> withdraw(uuid, amount, reason));
+    }
+
+    @Override
+    public CompletableFuture<TokenResult> withdrawAsync(String playerName, long amount, String reason) {
+        if (amount < 0) return CompletableFuture.completedFuture(TokenResult.failure("Cannot withdraw a negative amount"));
+        return byName(playerName, uuid -> withdraw(uuid, amount, reason));
+    }
+
+    @Override
+    public CompletableFuture<TokenResult> depositAsync(UUID uuid, long amount, String reason) {
+        if (amount < 0) return CompletableFuture.completedFuture(TokenResult.failure("Cannot deposit a negative amount"));
+        return run(uuid, () -> deposit(uuid, amount, reason));
+    }
+
+    @Override
+    public CompletableFuture<TokenResult> depositAsync(String playerName, long amount, String reason) {
+        if (amount < 0) return CompletableFuture.completedFuture(TokenResult.failure("Cannot deposit a negative amount"));
+        return byName(playerName, uuid -> deposit(uuid, amount, reason));
+    }
+
+    @Override
+    public CompletableFuture<Map<UUID, Long>> depositAllAsync(Map<UUID, Long> amounts, String reason) {
+        for (long amount : amounts.values()) {
+            if (amount < 0) {
+                CompletableFuture<Map<UUID, Long>> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new IllegalArgumentException("Cannot deposit a negative amount"));
+                return failed;
+            }
+        }
+        return service.rewardPlayers(amounts, reason);
+    }
+
+    @Override
+    public BalanceChangeFeed.Subscription subscribe(Consumer<List<BalanceChange>> subscriber) {
+        return service.subscribe(subscriber);
+    }
+
+    @Override
+    public CompletableFuture<Void> whenReady() {
+        return service.whenReady();
+    }
+
+    @Override
+    public Executor mainThread() {
+        return mainThread;
+    }
+
+    private TokenResult withdraw(UUID uuid, long amount, String reason) {
+        long remaining = service.withdrawSync(uuid, amount, reason);
+        if (remaining >= 0) return TokenResult.success(amount, remaining);
+        if (remaining == TokenService.WITHDRAW_FAILED) return TokenResult.failure("Token storage is not available");
+        try {
+            return TokenResult.insufficientFunds(service.getBalanceSync(uuid));
+        } catch (TokenService.StorageUnavailableException e) {
+            return TokenResult.failure("Token storage is not available");
+        }
+    }
+
+    private TokenResult deposit(UUID uuid, long amount, String reason) {
+        long actualAmount = (long) (amount * service.getTokenMultiplier(uuid));
+        long balance = service.addSync(uuid, actualAmount, reason);
+        if (balance >= 0) return TokenResult.success(actualAmount, balance);
+        return TokenResult.failure("Deposit failed");
+    }
+
+    // Names of online players are in memory; the rest may need a storage lookup
+    private CompletableFuture<TokenResult> byName(String playerName, Function<UUID, TokenResult> action) {
+        return submit(() -> {
+            UUID uuid = service.resolveName(playerName);
+            return uuid != null ? action.apply(uuid) : TokenResult.unknownPlayer(playerName);
+        });
+    }
+
+    // Cached balances never touch storage, so do them right here instead of paying for a thread hop
+    private <T> CompletableFuture<T> run(UUID uuid, Supplier<T> action) {
+        if (service.isCached(uuid)) {
+            try {
+                return CompletableFuture.completedFuture(action.get());
+            } catch (Exception e) {
+                CompletableFuture<T> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+        }
+        return submit(action);
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> action) {
+        return service.supplyAsync(action);
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.tokens;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+public class TokenListener implements Listener {
+    private final TokenService service;
+
+    public TokenListener(TokenService service) {
+        this.service = service;
+    }
+
+    // Runs on the login thread, so the balance is in memory before the player is in the world
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) return;
+        service.rememberName(event.getName(), event.getUniqueId());
+        service.loggingIn(event.getUniqueId());
+        service.preload(event.getUniqueId());
+    }
+
+    // Refused logins never get a quit event, so their preloaded balance is let go here
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onLogin(PlayerLoginEvent event) {
+        if (event.getResult() != PlayerLoginEvent.Result.ALLOWED) {
+            service.loginRefused(event.getPlayer().getUniqueId(), event.getPlayer().getName());
+        }
+    }
+
+    // Permission plugins have set up the player by now
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent event) {
+        service.joined(event.getPlayer().getUniqueId());
+        service.refreshMultiplier(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        service.unload(event.getPlayer().getUniqueId(), event.getPlayer().getName());
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.tokens;
+
+import org.bukkit.Bukkit;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Call counts and latency histograms per operation, plus plain counters such as cache hits.
+// Recording is a few atomic adds, so it stays on in production. Time spent on the server
+// thread is tracked separately since that is the part that causes lag.
+public class TokenMetrics {
+    // Bucket i holds durations below 2^i microseconds, the last one everything above
+    private static final int BUCKETS = 24;
+
+    public static final class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder primaryCount = new LongAdder();
+        private final LongAdder primaryNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        // Record the time since startNanos, taken from System.nanoTime()
+        public void record(long startNanos) {
+            long nanos = System.nanoTime() - startNanos;
+            count.increment();
+            totalNanos.add(nanos);
+            if (Bukkit.getServer() != null && Bukkit.isPrimaryThread()) {
+                primaryCount.increment();
+                primaryNanos.add(nanos);
+            }
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+            long micros = nanos / 1000L;
+            int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            histogram.incrementAndGet(bucket);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getAverageMillis() {
+            long n = count.sum();
+            return n == 0 ? 0d : totalNanos.sum() / (double) n / 1_000_000d;
+        }
+
+        public double getMaxMillis() {
+            return maxNanos.get() / 1_000_000d;
+        }
+
+        public long getPrimaryCount() {
+            return primaryCount.sum();
+        }
+
+        public double getPrimaryMillis() {
+            return primaryNanos.sum() / 1_000_000d;
+        }
+
+        // Upper bound of the bucket the given fraction of calls falls into, e.g. 0.99 for p99
+        public double getPercentileMillis(double fraction) {
+            long n = 0;
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = histogram.get(i);
+                n += counts[i];
+            }
+            if (n == 0) return 0d;
+            long target = (long) Math.ceil(n * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS - 1; i++) {
+                seen += counts[i];
+                if (seen >= target) return (1L << i) / 1000d;
+            }
+            return getMaxMillis();
+        }
+
+        void reset() {
+            count.reset();
+            totalNanos.reset();
+            primaryCount.reset();
+            primaryNanos.reset();
+            maxNanos.set(0L);
+            for (int i = 0; i < BUCKETS; i++) {
+                histogram.set(i, 0L);
+            }
+        }
+    }
+
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private volatile long since = System.currentTimeMillis();
+
+    // Look the timer up once and keep it in a field, the hot paths should not hash names
+    public Timer timer(String name) {
+        return timers.computeIfAbsent(name, key -> new Timer());
+    }
+
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    public void reset() {
+        timers.values().forEach(Timer::reset);
+        counters.values().forEach(LongAdder::reset);
+        since = System.currentTimeMillis();
+    }
+
+    // Fraction of hits among hits and misses, or -1 before the first lookup
+    public double ratio(String hits, String misses) {
+        long hit = counter(hits).sum();
+        long total = hit + counter(misses).sum();
+        return total == 0 ? -1d : hit / (double) total;
+    }
+
+    // One line per operation that was called at least once, for /tokens stats
+    public List<String> describe() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, Timer> e : new TreeMap<>(timers).entrySet()) {
+            Timer timer = e.getValue();
+            if (timer.getCount() == 0) continue;
+            lines.add(String.format(Locale.ROOT, "%s: %d calls, avg %.3fms, p50 %.3fms, p99 %.3fms, max %.3fms, main thread %d calls / %.1fms",
+                    e.getKey(), timer.getCount(), timer.getAverageMillis(), timer.getPercentileMillis(0.5),
+                    timer.getPercentileMillis(0.99), timer.getMaxMillis(), timer.getPrimaryCount(), timer.getPrimaryMillis()));
+        }
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(counters).entrySet()) {
+            lines.add(e.getKey() + ": " + e.getValue().sum());
+        }
+        return lines;
+    }
+
+    public long getSince() {
+        return since;
+    }
+
+    // Write everything as one JSON object, replacing the file atomically
+    public void export(Path file) throws IOException {
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\"timestamp\":").append(System.currentTimeMillis())
+                .append(",\"since\":").append(since)
+                .append(",\"timers\":{");
+        boolean first = true;
+        for (Map.Entry<String, Timer> e : new TreeMap<>(timers).entrySet()) {
+            Timer timer = e.getValue();
+            if (!first) json.append(',');
+            first = false;
+            json.append('"').append(e.getKey()).append("\":{")
+                    .append("\"count\":").append(timer.getCount())
+                    .append(",\"avgMs\":").append(format(timer.getAverageMillis()))
+                    .append(",\"p50Ms\":").append(format(timer.getPercentileMillis(0.5)))
+                    .append(",\"p99Ms\":").append(format(timer.getPercentileMillis(0.99)))
+                    .append(",\"maxMs\":").append(format(timer.getMaxMillis()))
+                    .append(",\"mainThreadCount\":").append(timer.getPrimaryCount())
+                    .append(",\"mainThreadMs\":").append(format(timer.getPrimaryMillis()))
+                    .append('}');
+        }
+        json.append("},\"counters\":{");
+        first = true;
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(counters).entrySet()) {
+            if (!first) json.append(',');
+            first = false;
+            json.append('"').append(e.getKey()).append("\":").append(e.getValue().sum());
+        }
+        json.append("}}\n");
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(json.toString());
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.4f", value);
+    }
+}
@@ -2,49 +2,110 @@ package com.example.tokens;
 
 import me.clip.placeholderapi.expansion.PlaceholderExpansion;
 import org.bukkit.OfflinePlayer;
-import net.milkbowl.vault.economy.Economy;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class TokenPlaceholderExpansion extends PlaceholderExpansion implements BalanceListener, Listener {
 
-public class TokenPlaceholderExpansion extends PlaceholderExpansion {
-    
     private final TokensPlugin plugin;
-    
+    private final TokenService service;
+    // Rendered balance per cached (online) player, dropped whenever that player's balance changes or
+    // they quit. Offline players are not kept: nothing would drop them, and their balance may change
+    // on another server without this one hearing about it
+    private final Map<UUID, String> rendered = new ConcurrentHashMap<>();
+
     public TokenPlaceholderExpansion(TokensPlugin plugin) {
         this.plugin = plugin;
+        this.service = plugin.getTokenService();
+        service.addBalanceListener(this);
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
     }
-    
+
     @Override
     public String getIdentifier() {
         return "vault";
     }
-    
+
     @Override
     public String getAuthor() {
         return plugin.getDescription().getAuthors().toString();
     }
-    
+
     @Override
     public String getVersion() {
         return plugin.getDescription().getVersion();
     }
-    
+
     @Override
     public boolean persist() {
         return true;
     }
-    
+
     @Override
     public String onRequest(OfflinePlayer player, String params) {
         if (player == null) {
             return "";
         }
-        
-        Economy economy = plugin.getServer().getServicesManager().getRegistration(Economy.class).getProvider();
-        
+
         if (params.equalsIgnoreCase("eco_balance") || params.equalsIgnoreCase("eco_balance_formatted")) {
-            double balance = economy.getBalance(player);
-            return economy.format(balance);
+            // Nothing to show, and nothing worth keeping, before storage has started
+            if (!service.isReady()) return "...";
+            UUID uuid = player.getUniqueId();
+            String text = rendered.get(uuid);
+            if (text != null) return text;
+            // computeIfAbsent keeps a concurrent invalidation from being overwritten by a stale render.
+            // Only memory is read inside it, a player that is not cached is read outside
+            text = rendered.computeIfAbsent(uuid, key -> {
+                long balance = service.getCachedBalance(key);
+                return balance >= 0 ? service.formatNumber(balance) : null;
+            });
+            if (text != null) return text;
+            try {
+                return service.formatNumber(service.getBalanceSync(uuid));
+            } catch (TokenService.StorageUnavailableException e) {
+                // Unknown while storage is failing, not 0
+                return "?";
+            }
+        }
+
+        // eco_top_<n>_name / eco_top_<n>_balance
+        if (params.regionMatches(true, 0, "eco_top_", 0, 8)) {
+            return onTopRequest(params);
         }
-        
+
         return null;
     }
-}
\ No newline at end of file
+
+    private String onTopRequest(String params) {
+        int rank = 0;
+        int i = 8;
+        while (i < params.length() && Character.isDigit(params.charAt(i)) && rank < 100000) {
+            rank = rank * 10 + (params.charAt(i++) - '0');
+        }
+        if (i == 8 || i >= params.length() || params.charAt(i) != '_') return null;
+        boolean name = params.regionMatches(true, i + 1, "name", 0, 4) && params.length() == i + 5;
+        boolean balance = params.regionMatches(true, i + 1, "balance", 0, 7) && params.length() == i + 8;
+        if (!name && !balance) return null;
+
+        Leaderboard.Entry entry = service.getLeaderboard().get(rank);
+        if (entry == null) return name ? "-" : "0";
+        if (balance) return service.formatNumber(entry.balance);
+        String display = service.displayName(entry.uuid);
+        return display != null ? display : "...";
+    }
+
+    @Override
+    public void onBalanceChange(UUID uuid, long oldBalance, long newBalance) {
+        rendered.remove(uuid);
+    }
+
+    @EventHandler
+    public void onQuit(PlayerQuitEvent event) {
+        rendered.remove(event.getPlayer().getUniqueId());
+    }
+}
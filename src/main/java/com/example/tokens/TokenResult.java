@@ -0,0 +1,50 @@
+package com.example.tokens;
+
+// Outcome of a balance change made through TokenEconomyApi
+public final class TokenResult {
+    public enum Type {
+        SUCCESS,
+        INSUFFICIENT_FUNDS,
+        UNKNOWN_PLAYER,
+        FAILURE
+    }
+
+    public final Type type;
+    // Tokens actually moved, after the multiplier for deposits
+    public final long amount;
+    // Balance after the operation; for failures the balance as far as it is known, else -1
+    public final long balance;
+    public final String message;
+
+    private TokenResult(Type type, long amount, long balance, String message) {
+        this.type = type;
+        this.amount = amount;
+        this.balance = balance;
+        this.message = message;
+    }
+
+    public static TokenResult success(long amount, long balance) {
+        return new TokenResult(Type.SUCCESS, amount, balance, null);
+    }
+
+    public static TokenResult insufficientFunds(long balance) {
+        return new TokenResult(Type.INSUFFICIENT_FUNDS, 0L, balance, "Insufficient funds");
+    }
+
+    public static TokenResult unknownPlayer(String name) {
+        return new TokenResult(Type.UNKNOWN_PLAYER, 0L, -1L, "Unknown player " + name);
+    }
+
+    public static TokenResult failure(String message) {
+        return new TokenResult(Type.FAILURE, 0L, -1L, message);
+    }
+
+    public boolean isSuccess() {
+        return type == Type.SUCCESS;
+    }
+
+    @Override
+    public String toString() {
+        return "TokenResult{" + type + ", amount=" + amount + ", balance=" + balance + (message != null ? ", " + message : "") + "}";
+    }
+}
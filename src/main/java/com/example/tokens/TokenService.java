@@ -1,205 +1,1494 @@
-package com.example.tokens;
-
-import org.bukkit.plugin.java.JavaPlugin;
-import org.bukkit.Bukkit;
-import org.bukkit.permissions.Permission;
-
-import java.sql.*;
-import java.text.NumberFormat;
-import java.util.Locale;
-import java.util.UUID;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
-
-public class TokenService {
-    private JavaPlugin plugin;
-    private Connection connection;
-    private boolean useMySQL;
-    private String host, port, database, user, password;
-    private NumberFormat numberFormatter;
-
-    public TokenService(JavaPlugin plugin, boolean useMySQL, String host, String port, String database, String user, String password) {
-        this.plugin = plugin;
-        this.useMySQL = useMySQL;
-        this.host = host;
-        this.port = port;
-        this.database = database;
-        this.user = user;
-        this.password = password;
-        this.numberFormatter = NumberFormat.getInstance(Locale.US); // For comma formatting
-    }
-
-    public void init() {
-        try {
-            if (useMySQL) {
-                // Connect to MySQL
-                connection = DriverManager.getConnection(
-                        "jdbc:mysql://" + host + ":" + port + "/" + database,
-                        user,
-                        password
-                );
-                // Create table if not exists
-                try (PreparedStatement ps = connection.prepareStatement(
-                        "CREATE TABLE IF NOT EXISTS tokens (" +
-                                "uuid VARCHAR(36) PRIMARY KEY," +
-                                "balance BIGINT NOT NULL DEFAULT 0" +
-                                ")"
-                )) {
-                    ps.executeUpdate();
-                }
-                
-                // Create transaction log table
-                try (PreparedStatement ps = connection.prepareStatement(
-                        "CREATE TABLE IF NOT EXISTS token_transactions (" +
-                                "id INT AUTO_INCREMENT PRIMARY KEY," +
-                                "uuid VARCHAR(36) NOT NULL," +
-                                "amount BIGINT NOT NULL," +
-                                "balance_before BIGINT NOT NULL," +
-                                "balance_after BIGINT NOT NULL," +
-                                "reason VARCHAR(255)," +
-                                "timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
-                                ")"
-                )) {
-                    ps.executeUpdate();
-                }
-            } else {
-                // SQLite implementation could go here
-            }
-            
-            // Register permissions
-            registerPermissions();
-        } catch (Exception e) {
-            plugin.getLogger().severe("Failed to initialize TokenService: " + e.getMessage());
-            e.printStackTrace();
-        }
-    }
-
-    // sync read
-    public long getBalanceSync(UUID uuid) {
-        try (PreparedStatement ps = connection.prepareStatement("SELECT balance FROM tokens WHERE uuid = ?")) {
-            ps.setString(1, uuid.toString());
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) return rs.getLong(1);
-            }
-        } catch (Exception e) {
-            plugin.getLogger().warning("getBalanceSync error: " + e.getMessage());
-        }
-        return 0L;
-    }
-
-    // async read
-    public CompletableFuture<Long> getBalance(UUID uuid) {
-        return CompletableFuture.supplyAsync(() -> getBalanceSync(uuid), getAsyncExecutor());
-    }
-
-    // sync set
-    public void setBalanceSync(UUID uuid, long amount, String reason) {
-        long oldBalance = getBalanceSync(uuid);
-        try (PreparedStatement ps = connection.prepareStatement("INSERT INTO tokens(uuid,balance) VALUES(?,?) ON DUPLICATE KEY UPDATE balance = ?")) {
-            ps.setString(1, uuid.toString());
-            ps.setLong(2, amount);
-            ps.setLong(3, amount);
-            ps.executeUpdate();
-            
-            // Log transaction
-            logTransaction(uuid, 0, oldBalance, amount, reason);
-        } catch (Exception e) {
-            plugin.getLogger().warning("setBalanceSync error: " + e.getMessage());
-        }
-    }
-
-    public CompletableFuture<Void> setBalance(UUID uuid, long amount, String reason) {
-        return CompletableFuture.runAsync(() -> setBalanceSync(uuid, amount, reason), getAsyncExecutor());
-    }
-
-    // add/remove atomically (sync)
-    public long addSync(UUID uuid, long delta, String reason) {
-        long current = getBalanceSync(uuid);
-        long next = Math.max(0L, current + delta);
-        setBalanceSync(uuid, next, reason);
-        return next;
-    }
-
-    public CompletableFuture<Long> add(UUID uuid, long delta, String reason) {
-        return CompletableFuture.supplyAsync(() -> addSync(uuid, delta, reason), getAsyncExecutor());
-    }
-
-    // force withdraw used by server/shop systems that are allowed to deduct tokens
-    public boolean removeSync(UUID uuid, long amount, String reason) {
-        long current = getBalanceSync(uuid);
-        if (current < amount) return false;
-        setBalanceSync(uuid, current - amount, reason);
-        return true;
-    }
-
-    public CompletableFuture<Boolean> remove(UUID uuid, long amount, String reason) {
-        return CompletableFuture.supplyAsync(() -> removeSync(uuid, amount, reason), getAsyncExecutor());
-    }
-
-    // Public method for rewarding players with tokens
-    public CompletableFuture<Long> rewardPlayer(UUID uuid, long amount, String reason) {
-        return add(uuid, amount, reason);
-    }
-    
-    // Apply token multiplier based on permissions
-    public double getTokenMultiplier(UUID uuid) {
-        org.bukkit.entity.Player player = Bukkit.getPlayer(uuid);
-        if (player == null) return 1.0;
-        
-        // Check for multiplier permissions
-        if (player.hasPermission("tokens.multiplier.2")) {
-            return 2.0;
-        } else if (player.hasPermission("tokens.multiplier.1.5")) {
-            return 1.5;
-        } else if (player.hasPermission("tokens.multiplier.1.25")) {
-            return 1.25;
-        }
-        return 1.0; // Default multiplier
-    }
-    
-    // Format number with commas
-    public String formatNumber(long number) {
-        return numberFormatter.format(number);
-    }
-
-    public void shutdown() {
-        try {
-            if (connection != null && !connection.isClosed()) connection.close();
-        } catch (Exception ignored) {
-        }
-    }
-    
-    // Custom method to get an async executor
-    private Executor getAsyncExecutor() {
-        return Runnable::run; // Run on the same thread for now
-        // In a more advanced implementation, you might want to use Bukkit's scheduler
-        // or create a proper thread pool
-    }
-    
-    // Log transactions to database
-    private void logTransaction(UUID uuid, long amount, long balanceBefore, long balanceAfter, String reason) {
-        try (PreparedStatement ps = connection.prepareStatement(
-                "INSERT INTO token_transactions (uuid, amount, balance_before, balance_after, reason) VALUES (?, ?, ?, ?, ?)")) {
-            ps.setString(1, uuid.toString());
-            ps.setLong(2, amount);
-            ps.setLong(3, balanceBefore);
-            ps.setLong(4, balanceAfter);
-            ps.setString(5, reason);
-            ps.executeUpdate();
-        } catch (Exception e) {
-            plugin.getLogger().warning("Failed to log transaction: " + e.getMessage());
-        }
-    }
-    
-    // Register permissions
-    private void registerPermissions() {
-        try {
-            Bukkit.getPluginManager().addPermission(new Permission("tokens.multiplier.1.25"));
-            Bukkit.getPluginManager().addPermission(new Permission("tokens.multiplier.1.5"));
-            Bukkit.getPluginManager().addPermission(new Permission("tokens.multiplier.2"));
-        } catch (Exception e) {
-            // Permissions might already be registered
-            plugin.getLogger().info("Permissions may already be registered.");
-        }
-    }
+package com.example.tokens;
+
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.permissions.Permission;
+import org.bukkit.permissions.PermissionDefault;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+public class TokenService {
+    public enum State { STARTING, READY, FAILED }
+
+    // Longest a thread other than the main thread waits for storage to start
+    private static final long STARTUP_WAIT_SECONDS = 10L;
+    // A failed start is tried again after this many seconds, doubling up to the maximum
+    private static final long RETRY_START_SECONDS = 5L, MAX_RETRY_START_SECONDS = 300L;
+    // After a storage error the main thread stops waiting on storage for this long
+    private static final long OUTAGE_BACKOFF_MILLIS = 5000L;
+    private static final long JOURNAL_FAILED = -2L;
+    private static final String IMPORT_REASON = "Import";
+    // withdrawSync() results besides the remaining balance
+    public static final long WITHDRAW_INSUFFICIENT = -1L;
+    public static final long WITHDRAW_FAILED = -2L;
+    // A player preloaded at login who has not joined by then never will, e.g. because they disconnected
+    private static final long JOIN_TIMEOUT_MILLIS = 60000L;
+    // Cached rewards journaled with one write, and the number of entries locked at once for that
+    private static final int REWARD_CHUNK = 64;
+
+    private JavaPlugin plugin;
+    private final TokenStorage storage;
+    private ExecutorService workers;
+    private volatile State state = State.STARTING;
+    // Replaced by a new one when a failed start is retried
+    private volatile CompletableFuture<Void> ready = new CompletableFuture<>();
+    private int startAttempts;
+    private volatile BukkitTask startRetryTask;
+    // Tasks held back until storage is ready, at most as many as the worker queue takes
+    private final AtomicInteger backlog = new AtomicInteger();
+    // Runs tasks on the workers, holding back the ones submitted before storage is ready
+    private final Executor afterStartup = task -> {
+        if (ready.isDone()) {
+            workers.execute(task);
+            return;
+        }
+        if (backlog.incrementAndGet() > this.workerQueueSize) {
+            backlog.decrementAndGet();
+            this.rejectedTasks.increment();
+            throw new RejectedExecutionException("Token storage is still starting and " + this.workerQueueSize + " tasks are waiting for it");
+        }
+        ready.whenComplete((ignored, error) -> {
+            backlog.decrementAndGet();
+            workers.execute(task);
+        });
+    };
+    private final BalanceCache cache = new BalanceCache();
+    private NameIndex names = new NameIndex(10000);
+    private final List<BalanceListener> listeners = new CopyOnWriteArrayList<>();
+    private Leaderboard leaderboard = new Leaderboard(100, this::reloadLeaderboardAsync);
+    private final AtomicBoolean leaderboardLoading = new AtomicBoolean();
+    private long leaderboardRefreshTicks = 20L * 300;
+    private BukkitTask leaderboardTask;
+    private final Set<UUID> nameLookups = ConcurrentHashMap.newKeySet();
+    private final Set<String> uuidLookups = ConcurrentHashMap.newKeySet();
+    private final MultiplierTiers multipliers = new MultiplierTiers();
+    private long multiplierRefreshTicks = 20L * 60;
+    private BukkitTask multiplierTask;
+    private long flushIntervalTicks = 20L * 5;
+    private BukkitTask flushTask;
+    private int workerThreads = 4, workerQueueSize = 1000;
+    private TransactionLogWriter logWriter;
+    private int logQueueSize = 10000, logBatchSize = 500;
+    private long logFlushMillis = 1000L;
+    private long coalesceWindowMillis;
+    private DepositCoalescer coalescer;
+    private BukkitTask coalesceTask;
+    private InvalidationChannel channel;
+    private BalanceChangeFeed feed;
+    private boolean bukkitEvents = true;
+    private long feedBatchMillis = 250L;
+    private int feedQueueSize = 10000;
+    private WriteAheadJournal journal;
+    private volatile AccountFilter accounts;
+    private long accountRebuildTicks = 20L * 3600;
+    private BukkitTask accountTask;
+    private final AtomicBoolean accountRebuilding = new AtomicBoolean();
+    // Until then the main thread answers without storage instead of waiting on a database that just failed
+    private volatile long lastRefusedReadWarning;
+    private volatile long storageRetryAt;
+    // Last row id of every history page a player has looked at, so the next page is one index range scan
+    private final Map<UUID, List<Long>> historyCursors = new ConcurrentHashMap<>();
+    // Storage reads of uncached balances currently running, see sharedLoad()
+    private final Map<UUID, CompletableFuture<Long>> inflightLoads = new ConcurrentHashMap<>();
+    // Players that passed login and were preloaded but have not joined yet, with the time they have to
+    private final Map<UUID, Long> awaitingJoin = new ConcurrentHashMap<>();
+    private long retentionMillis;
+    private int retentionChunk = 1000;
+    private BukkitTask retentionTask;
+    private int migrationChunk = 1000;
+    private volatile BukkitTask migrationTask;
+    private boolean migrationStarted;
+    private final TokenMetrics metrics = new TokenMetrics();
+    private final TokenMetrics.Timer getBalanceTimer = metrics.timer("service.getBalanceSync");
+    private final TokenMetrics.Timer setBalanceTimer = metrics.timer("service.setBalanceSync");
+    private final TokenMetrics.Timer addTimer = metrics.timer("service.addSync");
+    private final TokenMetrics.Timer withdrawTimer = metrics.timer("service.withdrawSync");
+    private final TokenMetrics.Timer rewardPlayersTimer = metrics.timer("service.rewardPlayersSync");
+    private final TokenMetrics.Timer flushTimer = metrics.timer("service.flush");
+    private final TokenMetrics.Timer logTransactionTimer = metrics.timer("service.logTransaction");
+    private final TokenMetrics.Timer logBatchTimer = metrics.timer("storage.appendLog");
+    private final LongAdder cacheHits = metrics.counter("cache.hits");
+    private final LongAdder cacheMisses = metrics.counter("cache.misses");
+    private final LongAdder accountsFiltered = metrics.counter("accounts.filtered");
+    private final LongAdder changesDropped = metrics.counter("events.dropped");
+    private final LongAdder sharedLoads = metrics.counter("loads.shared");
+    private final LongAdder rejectedTasks = metrics.counter("workers.rejected");
+    private final LongAdder logDropped = metrics.counter("log.dropped");
+
+    public TokenService(JavaPlugin plugin, TokenStorage storage) {
+        this.plugin = plugin;
+        this.storage = storage;
+    }
+
+    // Size of the worker pool, call before init()
+    public void setPoolSettings(int workerThreads, int workerQueueSize) {
+        this.workerThreads = Math.max(1, workerThreads);
+        this.workerQueueSize = Math.max(1, workerQueueSize);
+    }
+
+    // Transaction log queue capacity, rows per batch insert and the longest a row may wait
+    public void setLogSettings(int queueSize, int batchSize, long flushIntervalMillis) {
+        this.logQueueSize = Math.max(1, queueSize);
+        this.logBatchSize = Math.max(1, batchSize);
+        this.logFlushMillis = Math.max(1L, flushIntervalMillis);
+    }
+
+    // Deposits to one player with the same reason within this many milliseconds share one
+    // transaction log row, 0 logs every deposit on its own. Call before init()
+    public void setCoalesceWindow(long millis) {
+        this.coalesceWindowMillis = Math.max(0L, millis);
+    }
+
+    // Whether BalanceChangeEvent is fired, how long subscribers' batches collect changes and how many
+    // changes may wait for delivery on each side. Call before init()
+    public void setEventSettings(boolean bukkitEvents, long batchMillis, int queueSize) {
+        this.bukkitEvents = bukkitEvents;
+        this.feedBatchMillis = Math.max(1L, batchMillis);
+        this.feedQueueSize = Math.max(1, queueSize);
+    }
+
+    // How this server hears about balances changed by other servers on the same database, call before init()
+    public void setInvalidationChannel(InvalidationChannel channel) {
+        this.channel = channel;
+    }
+
+    // Transaction rows older than this many days are rolled up into daily totals, 0 keeps them forever.
+    // chunk is the number of rows removed per transaction. Call before init()
+    public void setRetention(int days, int chunk) {
+        this.retentionMillis = Math.max(0, days) * 24L * 60 * 60 * 1000;
+        this.retentionChunk = Math.max(1, chunk);
+    }
+
+    // Journal cached changes locally before confirming them, so they survive a crash or a database
+    // outage and are written on the next start. Call before init()
+    public void setJournal(WriteAheadJournal journal) {
+        this.journal = journal;
+    }
+
+    // Answer lookups of players without an account from memory instead of storage. The filter is
+    // rebuilt from storage every rebuildSeconds to pick up accounts other servers created. Call before init()
+    public void setAccountFilter(boolean enabled, long rebuildSeconds) {
+        this.accounts = enabled ? new AccountFilter() : null;
+        this.accountRebuildTicks = Math.max(60L, rebuildSeconds) * 20L;
+    }
+
+    // Rows copied per step while storage moves data from an older table layout, call before init()
+    public void setMigrationChunk(int rows) {
+        this.migrationChunk = Math.max(1, rows);
+    }
+
+    public void init() {
+        // Bounded pool for database work. When the queue is full, background threads run the task
+        // themselves; the main thread never does, its task is refused and its future fails instead
+        AtomicInteger threadId = new AtomicInteger();
+        workers = new ThreadPoolExecutor(workerThreads, workerThreads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(workerQueueSize), runnable -> {
+                    Thread thread = new Thread(runnable, "TokensPlugin-Worker-" + threadId.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, (task, executor) -> {
+                    if (executor.isShutdown() || Bukkit.isPrimaryThread()) {
+                        rejectedTasks.increment();
+                        throw new RejectedExecutionException("Token worker queue is full");
+                    }
+                    task.run();
+                });
+        logWriter = new TransactionLogWriter(batch -> {
+            long start = System.nanoTime();
+            try {
+                storage.appendLog(batch);
+            } finally {
+                logBatchTimer.record(start);
+            }
+        }, plugin.getLogger(), logQueueSize, logBatchSize, logFlushMillis, logDropped);
+        logWriter.start();
+        coalescer = new DepositCoalescer(coalesceWindowMillis, logWriter::append);
+        feed = new BalanceChangeFeed(plugin, bukkitEvents, feedBatchMillis, feedQueueSize, changesDropped);
+        feed.start();
+
+        // Connecting and schema changes can take a while, so they run on a worker instead of
+        // holding up server startup. Storage work asked for in the meantime waits for them
+        workers.execute(this::start);
+    }
+
+    private void start() {
+        long begin = System.nanoTime();
+        if (ready.isDone()) {
+            // Retrying after a failed start; work submitted from now on waits for this attempt
+            ready = new CompletableFuture<>();
+            state = State.STARTING;
+        }
+        startAttempts++;
+        try {
+            storage.init();
+            if (journal != null) replayJournal();
+        } catch (Exception e) {
+            // Most likely the database is not reachable yet; nothing else has been started, so try again
+            long delay = Math.min(MAX_RETRY_START_SECONDS, RETRY_START_SECONDS << Math.min(10, startAttempts - 1));
+            state = State.FAILED;
+            plugin.getLogger().severe("Failed to start token storage, retrying in " + delay + "s: " + e.getMessage());
+            if (startAttempts == 1) e.printStackTrace();
+            ready.completeExceptionally(e);
+            if (plugin.isEnabled()) {
+                startRetryTask = plugin.getServer().getScheduler().runTaskLaterAsynchronously(plugin, () -> {
+                    if (!tryExecute(workers, this::start)) start();
+                }, delay * 20L);
+            }
+            return;
+        }
+        try {
+            if (channel != null) channel.start(this::onRemoteChange);
+            addBalanceListener(leaderboard);
+            reloadLeaderboard();
+
+            // Write cached balances behind in the background
+            flushTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, this::flushDirty, flushIntervalTicks, flushIntervalTicks);
+            leaderboardTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, this::reloadLeaderboardAsync, leaderboardRefreshTicks, leaderboardRefreshTicks);
+            if (retentionMillis > 0) {
+                retentionTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, this::rollupHistory, 20L * 60, 20L * 60 * 60);
+            }
+            migrationTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, this::migrateSchema, 20L, 10L);
+            if (accounts != null) {
+                // Built in the background; until then every player may have an account and is looked up
+                accountTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, this::rebuildAccounts, 1L, accountRebuildTicks);
+            }
+            if (coalescer.isEnabled()) {
+                coalesceTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, coalescer::flushExpired, 20L, 20L);
+            }
+            multiplierTask = plugin.getServer().getScheduler().runTaskTimer(plugin, this::refreshMultipliers, multiplierRefreshTicks, multiplierRefreshTicks);
+        } catch (Exception e) {
+            state = State.FAILED;
+            plugin.getLogger().severe("Failed to initialize TokenService: " + e.getMessage());
+            e.printStackTrace();
+            ready.completeExceptionally(e);
+            return;
+        }
+        state = State.READY;
+        plugin.getLogger().info("Token storage ready after " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) + " ms.");
+        ready.complete(null);
+    }
+
+    // Write what the previous run journaled and storage has not seen yet, then start a new journal.
+    // Storage remembers the last seq it applied per player, so nothing is applied twice
+    private void replayJournal() throws Exception {
+        WriteAheadJournal.Pending pending = journal.recover();
+        int replayed = 0;
+        if (!pending.isEmpty()) {
+            Map<UUID, Long> marks = storage.loadJournalMarks(pending.journal, pending.records.keySet());
+            for (Map.Entry<UUID, List<long[]>> e : pending.records.entrySet()) {
+                long applied = marks.getOrDefault(e.getKey(), 0L);
+                long delta = 0L, last = applied;
+                for (long[] record : e.getValue()) {
+                    if (record[0] <= applied) continue;
+                    delta += record[1];
+                    last = Math.max(last, record[0]);
+                }
+                if (last == applied) continue;
+                storage.applyDelta(e.getKey(), delta, pending.journal, last);
+                replayed++;
+            }
+        }
+        journal.start(pending);
+        if (pending.journal != null) {
+            try {
+                storage.dropJournalMarks(pending.journal);
+            } catch (Exception e) {
+                // The journal has started already, so this must not fail the start; the marks are only clutter
+                plugin.getLogger().warning("Failed to drop the marks of the previous token journal: " + e.getMessage());
+            }
+        }
+        if (replayed > 0) plugin.getLogger().info("Replayed journaled token changes of " + replayed + " players.");
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isReady() {
+        return state == State.READY;
+    }
+
+    // Completes once storage is usable, or exceptionally if it could not be started. A failed start is
+    // retried in the background; ask again for a future that follows the retry
+    public CompletableFuture<Void> whenReady() {
+        return ready;
+    }
+
+    // True once storage is usable. Other threads wait up to STARTUP_WAIT_SECONDS for startup to
+    // finish, the main thread is never held up and gets false right away
+    boolean awaitReady() {
+        if (state == State.READY) return true;
+        if (state == State.FAILED || Bukkit.isPrimaryThread()) return false;
+        try {
+            ready.get(STARTUP_WAIT_SECONDS, TimeUnit.SECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // Failed or still starting, the caller answers without storage
+        }
+        return false;
+    }
+
+    // Like awaitReady(), but for a few seconds after a storage error the main thread does not try
+    // storage again, so an outage does not stall every tick on connection timeouts
+    private boolean storageAvailable() {
+        if (!awaitReady()) return false;
+        return storageRetryAt == 0L || System.currentTimeMillis() >= storageRetryAt || !Bukkit.isPrimaryThread();
+    }
+
+    private void storageFailed() {
+        storageRetryAt = System.currentTimeMillis() + OUTAGE_BACKOFF_MILLIS;
+    }
+
+    // False only for players that certainly have no account
+    private boolean mightHaveAccount(UUID uuid) {
+        AccountFilter filter = accounts;
+        return filter == null || filter.mightContain(uuid);
+    }
+
+    // The player has or is about to get an account; call before writing to storage
+    private void noteAccount(UUID uuid) {
+        AccountFilter filter = accounts;
+        if (filter == null) return;
+        filter.add(uuid);
+        // A busy pool gets to it on the next change or the rebuild timer
+        if (filter.isOverfull() && !accountRebuilding.get()) tryExecute(workers, this::rebuildAccounts);
+    }
+
+    // Scan storage into a new account filter; lookups keep using the old one until it is done
+    private void rebuildAccounts() {
+        AccountFilter filter = accounts;
+        if (filter == null || !accountRebuilding.compareAndSet(false, true)) return;
+        long begin = System.nanoTime();
+        try {
+            Consumer<UUID> sink = filter.startBuild(storage.countAccounts());
+            storage.forEachAccount(sink);
+            boolean first = !filter.isBuilt();
+            filter.finishBuild();
+            if (first) {
+                plugin.getLogger().info("Token account filter built in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin)
+                        + " ms (" + filter.sizeBytes() / 1024 + " KB).");
+            }
+        } catch (Exception e) {
+            filter.abortBuild();
+            plugin.getLogger().warning("Failed to build the token account filter: " + e.getMessage());
+        } finally {
+            accountRebuilding.set(false);
+        }
+    }
+
+    // Bytes held by the account filter, 0 while it is off or not built yet
+    public long getAccountFilterBytes() {
+        AccountFilter filter = accounts;
+        return filter == null ? 0L : filter.sizeBytes();
+    }
+
+    // Whether the player ever had a balance. Cached (online) players always count as having one
+    public boolean hasAccount(UUID uuid) {
+        if (cache.contains(uuid)) return true;
+        if (!mightHaveAccount(uuid)) {
+            accountsFiltered.increment();
+            return false;
+        }
+        if (!storageAvailable()) return false;
+        try {
+            return storage.exists(uuid);
+        } catch (Exception e) {
+            storageFailed();
+            plugin.getLogger().warning("hasAccount error: " + e.getMessage());
+        }
+        return false;
+    }
+
+    // Journal a change to a cached balance before making it; caller holds the entry lock.
+    // False if it could not be journaled, the change is then refused
+    private boolean journal(UUID uuid, BalanceCache.Entry entry, long delta) {
+        if (journal == null || delta == 0L) return true;
+        try {
+            entry.setJournalSeq(journal.append(uuid, delta));
+            return true;
+        } catch (Exception e) {
+            plugin.getLogger().warning("Failed to journal token change for " + uuid + ", change refused: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Ranks shown on the leaderboard and seconds between full reloads from storage, call before init()
+    public void setLeaderboardSettings(int size, long refreshSeconds) {
+        this.leaderboard = new Leaderboard(size, this::reloadLeaderboardAsync);
+        this.leaderboardRefreshTicks = Math.max(1L, refreshSeconds) * 20L;
+    }
+
+    public Leaderboard getLeaderboard() {
+        return leaderboard;
+    }
+
+    // Read the top balances from storage once; after that the board follows balance changes.
+    // The periodic reload picks up changes made outside this server
+    public void reloadLeaderboard() {
+        try {
+            Map<UUID, Long> top = storage.loadTop(leaderboard.getCapacity());
+            leaderboard.load(top);
+            // Cached balances may not be written yet, they are newer than what storage returned
+            cache.forEach((uuid, balance) -> leaderboard.onBalanceChange(uuid, balance, balance));
+            List<UUID> unnamed = new ArrayList<>();
+            for (UUID uuid : top.keySet()) {
+                if (names.nameOf(uuid) == null) unnamed.add(uuid);
+            }
+            if (!unnamed.isEmpty()) {
+                storage.loadNames(unnamed).forEach((uuid, name) -> names.put(name, uuid));
+            }
+        } catch (Exception e) {
+            plugin.getLogger().warning("Failed to load the leaderboard: " + e.getMessage());
+        }
+    }
+
+    private void reloadLeaderboardAsync() {
+        if (!leaderboardLoading.compareAndSet(false, true)) return;
+        boolean queued = tryExecute(afterStartup, () -> {
+            try {
+                reloadLeaderboard();
+            } finally {
+                leaderboardLoading.set(false);
+            }
+        });
+        if (!queued) leaderboardLoading.set(false);
+    }
+
+    // Name to show for a player. Returns null while an unknown name is being looked up in the background
+    public String displayName(UUID uuid) {
+        String name = names.nameOf(uuid);
+        if (name != null || !nameLookups.add(uuid)) return name;
+        boolean queued = tryExecute(afterStartup, () -> {
+            try {
+                String found = storage.loadNames(Collections.singleton(uuid)).get(uuid);
+                if (found != null) names.put(found, uuid);
+            } catch (Exception e) {
+                plugin.getLogger().warning("Failed to look up the name of " + uuid + ": " + e.getMessage());
+            } finally {
+                nameLookups.remove(uuid);
+            }
+        });
+        // Asked again on the next render
+        if (!queued) nameLookups.remove(uuid);
+        return null;
+    }
+
+    public TokenMetrics getMetrics() {
+        return metrics;
+    }
+
+    public TokenStorage getStorage() {
+        return storage;
+    }
+
+    // Seconds between background flushes of cached balances
+    public void setFlushInterval(long seconds) {
+        this.flushIntervalTicks = Math.max(1L, seconds) * 20L;
+    }
+
+    public void addBalanceListener(BalanceListener listener) {
+        listeners.add(listener);
+    }
+
+    // Every balance change with its reason, delivered in batches on a background thread. Cheaper than a
+    // BalanceListener for anything that is not trivial, and than polling balances in any case
+    public BalanceChangeFeed.Subscription subscribe(Consumer<List<BalanceChange>> subscriber) {
+        return feed.subscribe(subscriber);
+    }
+
+    public void removeBalanceListener(BalanceListener listener) {
+        listeners.remove(listener);
+    }
+
+    // How many offline player names are kept in memory, call before init()
+    public void setNameCacheSize(int size) {
+        this.names = new NameIndex(size);
+    }
+
+    // Real UUID of a player name, or null if no player with that name was ever seen. The main thread
+    // only gets names that are in memory; others are looked up in the background and known next time
+    public UUID resolveName(String name) {
+        UUID uuid = names.get(name);
+        if (uuid != null || names.isUnknown(name)) return uuid;
+        if (!Bukkit.isPrimaryThread()) return lookupName(name);
+        String key = NameIndex.key(name);
+        if (uuidLookups.add(key) && !tryExecute(afterStartup, () -> {
+            try {
+                lookupName(name);
+            } finally {
+                uuidLookups.remove(key);
+            }
+        })) {
+            uuidLookups.remove(key);
+        }
+        return null;
+    }
+
+    private UUID lookupName(String name) {
+        if (!storageAvailable()) return null;
+        try {
+            UUID uuid = storage.lookupName(name);
+            if (uuid != null) {
+                names.put(name, uuid);
+            } else {
+                names.putUnknown(name);
+            }
+            return uuid;
+        } catch (Exception e) {
+            storageFailed();
+            plugin.getLogger().warning("Failed to look up player " + name + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    // Player is joining under this name; only written to storage when it changed
+    public void rememberName(String name, UUID uuid) {
+        boolean known = uuid.equals(names.get(name));
+        names.online(name, uuid);
+        if (known) return;
+        // Dropped when the pool is full; saved again on the player's next join
+        tryExecute(afterStartup, () -> {
+            try {
+                storage.saveName(name, uuid);
+            } catch (Exception e) {
+                plugin.getLogger().warning("Failed to save name of " + name + ": " + e.getMessage());
+            }
+        });
+    }
+
+    // sync read, served from the cache for online players. Throws StorageUnavailableException when an
+    // uncached balance cannot be read, rather than passing off an unknown balance as 0
+    public long getBalanceSync(UUID uuid) {
+        long start = System.nanoTime();
+        try {
+            BalanceCache.Entry entry = cache.get(uuid);
+            if (entry != null) {
+                cacheHits.increment();
+                return entry.getBalance();
+            }
+            cacheMisses.increment();
+            if (!mightHaveAccount(uuid)) {
+                accountsFiltered.increment();
+                return 0L;
+            }
+            if (!storageAvailable()) throw refusedRead(uuid);
+            return sharedLoad(uuid);
+        } finally {
+            getBalanceTimer.record(start);
+        }
+    }
+
+    // A read skipped while storage is starting or backing off after an error; logged now and then
+    private StorageUnavailableException refusedRead(UUID uuid) {
+        long now = System.currentTimeMillis();
+        if (now - lastRefusedReadWarning >= OUTAGE_BACKOFF_MILLIS) {
+            lastRefusedReadWarning = now;
+            plugin.getLogger().warning("Balance of " + uuid + " not read, token storage is "
+                    + (isReady() ? "backing off after an error" : "not started") + "; balance calls fail meanwhile.");
+        }
+        return new StorageUnavailableException("Token storage is not available", null);
+    }
+
+    // Storage read of an uncached balance, shared by everyone asking for the same player while it
+    // runs, so a burst of lookups costs one query per player instead of one per caller. Only reads
+    // that are already running are shared, never queued ones, so waiting for one cannot deadlock
+    // the worker pool. An error fails the read for every waiter
+    private long sharedLoad(UUID uuid) {
+        CompletableFuture<Long> load = new CompletableFuture<>();
+        CompletableFuture<Long> shared = inflightLoads.putIfAbsent(uuid, load);
+        if (shared != null) {
+            sharedLoads.increment();
+            try {
+                return shared.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof StorageUnavailableException) throw (StorageUnavailableException) e.getCause();
+                throw new StorageUnavailableException("Failed to read the balance of " + uuid, e.getCause());
+            }
+        }
+        long balance = 0L;
+        boolean loaded = false;
+        StorageUnavailableException failure = null;
+        try {
+            balance = storage.load(uuid);
+            loaded = true;
+        } catch (Exception e) {
+            storageFailed();
+            plugin.getLogger().warning("getBalanceSync error: " + e.getMessage());
+            failure = new StorageUnavailableException("Failed to read the balance of " + uuid + ": " + e.getMessage(), e);
+        } finally {
+            inflightLoads.remove(uuid, load);
+            if (loaded) {
+                load.complete(balance);
+            } else {
+                load.completeExceptionally(failure != null ? failure : new StorageUnavailableException("Balance read of " + uuid + " did not finish", null));
+            }
+        }
+        if (failure != null) throw failure;
+        return balance;
+    }
+
+    // An uncached balance could not be read from storage
+    public static final class StorageUnavailableException extends RuntimeException {
+        StorageUnavailableException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    // Load a player's balance into the cache, called off the main thread before they join
+    public void preload(UUID uuid) {
+        // Without storage the player stays uncached and is read from storage when used
+        if (!awaitReady()) return;
+        try {
+            VersionedBalance stored = storage.loadVersioned(uuid);
+            // An account another server created since the filter was built
+            if (stored.version > 0) noteAccount(uuid);
+            cache.load(uuid, stored.balance, stored.version);
+        } catch (Exception e) {
+            plugin.getLogger().warning("Failed to preload balance for " + uuid + ": " + e.getMessage());
+        }
+    }
+
+    // Load several players with one query, e.g. everyone already online after a reload
+    public void preload(Collection<UUID> uuids) {
+        if (!awaitReady()) return;
+        try {
+            Map<UUID, VersionedBalance> balances = storage.loadVersionedBatch(uuids);
+            for (UUID uuid : uuids) {
+                VersionedBalance stored = balances.get(uuid);
+                if (stored != null) {
+                    if (stored.version > 0) noteAccount(uuid);
+                    cache.load(uuid, stored.balance, stored.version);
+                } else {
+                    cache.load(uuid, 0L, 0L);
+                }
+            }
+        } catch (Exception e) {
+            plugin.getLogger().warning("Failed to preload " + uuids.size() + " balances: " + e.getMessage());
+        }
+    }
+
+    // Player passed pre-login and is being preloaded. No quit follows if the login is refused later
+    // or the player disconnects before joining, so until joined() the entry expires on its own
+    public void loggingIn(UUID uuid) {
+        awaitingJoin.put(uuid, System.currentTimeMillis() + JOIN_TIMEOUT_MILLIS);
+    }
+
+    // Player is in the world; called on the main thread. An entry that expired because joining took
+    // too long is kept, or loaded again in the background if it is gone already
+    public void joined(UUID uuid) {
+        if (awaitingJoin.remove(uuid) != null || cache.markOnline(uuid)) return;
+        // Left uncached when the pool is full, the player's balance is then read from storage
+        tryExecute(afterStartup, () -> preload(uuid));
+    }
+
+    // Login was refused after the player had been preloaded (ban, whitelist, full server)
+    public void loginRefused(UUID uuid, String name) {
+        if (awaitingJoin.remove(uuid) != null) unload(uuid, name);
+    }
+
+    // Let go of players preloaded at login who never joined
+    private void expireLogins() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<UUID, Long> e : awaitingJoin.entrySet()) {
+            if (e.getValue() > now || !awaitingJoin.remove(e.getKey(), e.getValue())) continue;
+            UUID uuid = e.getKey();
+            String name = names.nameOf(uuid);
+            if (name != null) names.offline(name);
+            multipliers.forget(uuid);
+            cache.markOffline(uuid);
+        }
+    }
+
+    // Player left: write out what is pending and let the entry expire
+    public void unload(UUID uuid, String name) {
+        awaitingJoin.remove(uuid);
+        names.offline(name);
+        multipliers.forget(uuid);
+        cache.markOffline(uuid);
+        historyCursors.remove(uuid);
+        // When the pool is full the flush timer writes and evicts the entry instead
+        tryExecute(afterStartup, () -> {
+            flush(uuid);
+            coalescer.flush(uuid);
+            cache.evictOffline();
+        });
+    }
+
+    // UUIDs of every cached balance, e.g. for polling their versions
+    public Collection<UUID> cachedPlayers() {
+        return cache.keys();
+    }
+
+    public boolean isCached(UUID uuid) {
+        return cache.contains(uuid);
+    }
+
+    // Balance of a cached player, -1 if the player is not cached. Never touches storage
+    public long getCachedBalance(UUID uuid) {
+        BalanceCache.Entry entry = cache.get(uuid);
+        return entry != null ? entry.getBalance() : -1L;
+    }
+
+    // async read; cached players complete right away, and a read of a player whose balance is being
+    // read already completes with that read instead of taking a worker for its own
+    public CompletableFuture<Long> getBalance(UUID uuid) {
+        BalanceCache.Entry entry = cache.get(uuid);
+        if (entry != null) {
+            cacheHits.increment();
+            return CompletableFuture.completedFuture(entry.getBalance());
+        }
+        CompletableFuture<Long> shared = inflightLoads.get(uuid);
+        if (shared != null) {
+            cacheMisses.increment();
+            sharedLoads.increment();
+            // Its own future, completed on a worker like any other read
+            return shared.thenApplyAsync(balance -> balance, getAsyncExecutor());
+        }
+        return supplyAsync(() -> getBalanceSync(uuid));
+    }
+
+    // sync set
+    public void setBalanceSync(UUID uuid, long amount, String reason) {
+        long start = System.nanoTime();
+        try {
+            noteAccount(uuid);
+            BalanceCache.Entry entry = cache.get(uuid);
+            if (entry != null) {
+                synchronized (entry) {
+                    if (entry.isLive()) {
+                        cacheHits.increment();
+                        long oldBalance = entry.getBalance();
+                        if (!journal(uuid, entry, amount - oldBalance)) return;
+                        entry.apply(amount);
+                        recordChange(uuid, amount - oldBalance, oldBalance, amount, reason);
+                        return;
+                    }
+                }
+            }
+
+            cacheMisses.increment();
+            if (!storageAvailable()) {
+                plugin.getLogger().warning("setBalanceSync: token storage is not available, balance of " + uuid + " not set");
+                return;
+            }
+            try {
+                long oldBalance = storage.set(uuid, amount);
+                publish(uuid);
+            
+                // Log transaction
+                recordChange(uuid, amount - oldBalance, oldBalance, amount, reason);
+            } catch (Exception e) {
+                storageFailed();
+                plugin.getLogger().warning("setBalanceSync error: " + e.getMessage());
+            }
+        } finally {
+            setBalanceTimer.record(start);
+        }
+    }
+
+    public CompletableFuture<Void> setBalance(UUID uuid, long amount, String reason) {
+        return supplyAsync(() -> {
+            setBalanceSync(uuid, amount, reason);
+            return null;
+        });
+    }
+
+    // add/remove atomically (sync). Returns the new balance, or -1 if the database could not be updated
+    public long addSync(UUID uuid, long delta, String reason) {
+        long start = System.nanoTime();
+        try {
+            noteAccount(uuid);
+            long cached = addCached(uuid, delta, reason);
+            if (cached >= 0) return cached;
+            if (cached == JOURNAL_FAILED) return -1L;
+            cacheMisses.increment();
+            if (!storageAvailable()) return -1L;
+
+            try {
+                long before = storage.applyDelta(uuid, delta);
+                long after = Math.max(0L, before + delta);
+                publish(uuid);
+                recordChange(uuid, after - before, before, after, reason);
+                return after;
+            } catch (Exception e) {
+                storageFailed();
+                plugin.getLogger().warning("addSync error: " + e.getMessage());
+            }
+            return -1L;
+        } finally {
+            addTimer.record(start);
+        }
+    }
+
+    public CompletableFuture<Long> add(UUID uuid, long delta, String reason) {
+        return supplyAsync(() -> addSync(uuid, delta, reason));
+    }
+
+    // Apply delta to a cached balance. Returns the new balance, -1 if the player is not cached or
+    // JOURNAL_FAILED if the change could not be journaled
+    private long addCached(UUID uuid, long delta, String reason) {
+        BalanceCache.Entry entry = cache.get(uuid);
+        if (entry != null) {
+            synchronized (entry) {
+                if (entry.isLive()) {
+                    cacheHits.increment();
+                    long current = entry.getBalance();
+                    long next = Math.max(0L, current + delta);
+                    if (!journal(uuid, entry, next - current)) return JOURNAL_FAILED;
+                    entry.apply(next);
+                    recordChange(uuid, next - current, current, next, reason);
+                    return next;
+                }
+            }
+        }
+        return -1L;
+    }
+
+    // Reward several players at once, e.g. everyone in a match that just ended. Multipliers are
+    // applied per player and all players that are not cached are written in one storage batch.
+    // Returns the new balance of every player, -1 for those that could not be updated
+    public Map<UUID, Long> rewardPlayersSync(Map<UUID, Long> amounts, String reason) {
+        long start = System.nanoTime();
+        try {
+            Map<UUID, Long> balances = new HashMap<>();
+            Map<UUID, Long> uncached = new HashMap<>();
+            Map<UUID, Long> scaled = new HashMap<>();
+            List<UUID> cached = new ArrayList<>();
+            for (Map.Entry<UUID, Long> e : amounts.entrySet()) {
+                UUID uuid = e.getKey();
+                long amount = (long) (e.getValue() * getTokenMultiplier(uuid));
+                noteAccount(uuid);
+                scaled.put(uuid, amount);
+                if (cache.contains(uuid)) {
+                    cached.add(uuid);
+                } else {
+                    cacheMisses.increment();
+                    uncached.put(uuid, amount);
+                }
+            }
+            // Entries are locked in uuid order
+            Collections.sort(cached);
+            for (int i = 0; i < cached.size(); i += REWARD_CHUNK) {
+                rewardCached(cached.subList(i, Math.min(cached.size(), i + REWARD_CHUNK)), scaled, reason, balances, uncached);
+            }
+            if (uncached.isEmpty()) return balances;
+            if (!storageAvailable()) {
+                for (UUID uuid : uncached.keySet()) {
+                    balances.put(uuid, -1L);
+                }
+                return balances;
+            }
+
+            try {
+                Map<UUID, Long> before = storage.applyDeltas(uncached);
+                for (Map.Entry<UUID, Long> e : uncached.entrySet()) {
+                    long previous = before.getOrDefault(e.getKey(), 0L);
+                    long after = Math.max(0L, previous + e.getValue());
+                    publish(e.getKey());
+                    recordChange(e.getKey(), after - previous, previous, after, reason);
+                    balances.put(e.getKey(), after);
+                }
+            } catch (Exception e) {
+                storageFailed();
+                plugin.getLogger().warning("rewardPlayersSync error: " + e.getMessage());
+                for (UUID uuid : uncached.keySet()) {
+                    balances.put(uuid, -1L);
+                }
+            }
+            return balances;
+        } finally {
+            rewardPlayersTimer.record(start);
+        }
+    }
+
+    // Apply rewards to cached balances with one journal write for all of them, -1 for every player if
+    // that write fails. The entries are locked together; nothing else holds two entry locks and
+    // uuids is sorted, so this cannot deadlock. Players no longer cached go to uncached
+    private void rewardCached(List<UUID> uuids, Map<UUID, Long> amounts, String reason, Map<UUID, Long> balances, Map<UUID, Long> uncached) {
+        List<BalanceCache.Entry> entries = new ArrayList<>(uuids.size());
+        for (UUID uuid : uuids) {
+            entries.add(cache.get(uuid));
+        }
+        lockAll(entries, 0, () -> {
+            int count = uuids.size();
+            boolean[] live = new boolean[count];
+            long[] current = new long[count];
+            long[] next = new long[count];
+            List<UUID> journaled = new ArrayList<>();
+            List<Long> deltas = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                UUID uuid = uuids.get(i);
+                BalanceCache.Entry entry = entries.get(i);
+                if (entry == null || !entry.isLive()) {
+                    cacheMisses.increment();
+                    uncached.put(uuid, amounts.get(uuid));
+                    continue;
+                }
+                cacheHits.increment();
+                live[i] = true;
+                current[i] = entry.getBalance();
+                next[i] = Math.max(0L, current[i] + amounts.get(uuid));
+                if (next[i] != current[i]) {
+                    journaled.add(uuid);
+                    deltas.add(next[i] - current[i]);
+                }
+            }
+            long seq = 0L;
+            if (journal != null && !journaled.isEmpty()) {
+                long[] values = new long[deltas.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = deltas.get(i);
+                }
+                try {
+                    seq = journal.appendAll(journaled.toArray(new UUID[0]), values);
+                } catch (Exception e) {
+                    plugin.getLogger().warning("Failed to journal token rewards of " + journaled.size() + " players, changes refused: " + e.getMessage());
+                    for (int i = 0; i < count; i++) {
+                        if (live[i]) balances.put(uuids.get(i), -1L);
+                    }
+                    return;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                if (!live[i]) continue;
+                UUID uuid = uuids.get(i);
+                BalanceCache.Entry entry = entries.get(i);
+                if (journal != null && next[i] != current[i]) entry.setJournalSeq(seq++);
+                entry.apply(next[i]);
+                recordChange(uuid, next[i] - current[i], current[i], next[i], reason);
+                balances.put(uuid, next[i]);
+            }
+        });
+    }
+
+    private static void lockAll(List<BalanceCache.Entry> entries, int index, Runnable body) {
+        if (index == entries.size()) {
+            body.run();
+            return;
+        }
+        BalanceCache.Entry entry = entries.get(index);
+        if (entry == null) {
+            lockAll(entries, index + 1, body);
+            return;
+        }
+        synchronized (entry) {
+            lockAll(entries, index + 1, body);
+        }
+    }
+
+    public CompletableFuture<Map<UUID, Long>> rewardPlayers(Map<UUID, Long> amounts, String reason) {
+        Map<UUID, Long> copy = new HashMap<>(amounts);
+        return supplyAsync(() -> rewardPlayersSync(copy, reason));
+    }
+
+    // force withdraw used by server/shop systems that are allowed to deduct tokens
+    public boolean removeSync(UUID uuid, long amount, String reason) {
+        return withdrawSync(uuid, amount, reason) >= 0;
+    }
+
+    // Withdraw only if the balance covers it. Returns the remaining balance, WITHDRAW_INSUFFICIENT if
+    // it did not cover it, or WITHDRAW_FAILED if nothing could be decided: storage still starting or
+    // failing, or the change could not be journaled
+    public long withdrawSync(UUID uuid, long amount, String reason) {
+        long start = System.nanoTime();
+        try {
+            if (amount < 0) {
+                long balance = addSync(uuid, -amount, reason);
+                return balance >= 0 ? balance : WITHDRAW_FAILED;
+            }
+
+            BalanceCache.Entry entry = cache.get(uuid);
+            if (entry != null) {
+                synchronized (entry) {
+                    if (entry.isLive()) {
+                        cacheHits.increment();
+                        long current = entry.getBalance();
+                        if (current < amount) return WITHDRAW_INSUFFICIENT;
+                        if (!journal(uuid, entry, -amount)) return WITHDRAW_FAILED;
+                        entry.apply(current - amount);
+                        recordChange(uuid, -amount, current, current - amount, reason);
+                        return current - amount;
+                    }
+                }
+            }
+
+            if (amount == 0) {
+                try {
+                    return getBalanceSync(uuid);
+                } catch (StorageUnavailableException e) {
+                    return WITHDRAW_FAILED;
+                }
+            }
+            cacheMisses.increment();
+            if (!mightHaveAccount(uuid)) {
+                // Nothing to withdraw from
+                accountsFiltered.increment();
+                return WITHDRAW_INSUFFICIENT;
+            }
+            if (!storageAvailable()) return WITHDRAW_FAILED;
+
+            try {
+                long after = storage.withdraw(uuid, amount);
+                if (after < 0) return WITHDRAW_INSUFFICIENT;
+                publish(uuid);
+                recordChange(uuid, -amount, after + amount, after, reason);
+                return after;
+            } catch (Exception e) {
+                storageFailed();
+                plugin.getLogger().warning("withdrawSync error: " + e.getMessage());
+            }
+            return WITHDRAW_FAILED;
+        } finally {
+            withdrawTimer.record(start);
+        }
+    }
+
+    public CompletableFuture<Boolean> remove(UUID uuid, long amount, String reason) {
+        return supplyAsync(() -> removeSync(uuid, amount, reason));
+    }
+
+    // One page of a player's transactions, newest first, in one query. Page 1 starts over from the
+    // newest row; later pages continue from where an earlier page ended, so only pages up to one past
+    // the furthest page read can be asked for, anything beyond throws PageNotReachedException.
+    // Rows still waiting in the log writer show up a moment later
+    public List<TransactionRecord> getHistorySync(UUID uuid, int page, int pageSize) throws Exception {
+        List<Long> cursors = historyCursors.computeIfAbsent(uuid, key -> new ArrayList<>());
+        synchronized (cursors) {
+            if (page <= 1) cursors.clear();
+            int known = Math.max(0, page - 1);
+            if (known > cursors.size()) throw new PageNotReachedException(cursors.size() + 1);
+            long before = known > 0 ? cursors.get(known - 1) : Long.MAX_VALUE;
+            List<TransactionRecord> rows = storage.loadHistory(uuid, before, pageSize);
+            if (!rows.isEmpty() && cursors.size() == known) cursors.add(rows.get(rows.size() - 1).id);
+            return rows;
+        }
+    }
+
+    // A history page further than one past the furthest page the player has read
+    public static final class PageNotReachedException extends IllegalArgumentException {
+        public final int nextPage;
+
+        PageNotReachedException(int nextPage) {
+            super("Read the history up to page " + nextPage + " first");
+            this.nextPage = nextPage;
+        }
+    }
+
+    public CompletableFuture<List<TransactionRecord>> getHistory(UUID uuid, int page, int pageSize) {
+        return supplyAsync(() -> {
+            try {
+                return getHistorySync(uuid, page, pageSize);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    // Retention job: roll old transaction rows up chunk by chunk, pausing between chunks
+    // so each transaction holds its locks only briefly
+    private void rollupHistory() {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        int total = 0;
+        try {
+            int removed;
+            do {
+                removed = storage.rollupHistory(cutoff, retentionChunk);
+                total += removed;
+                if (removed > 0) Thread.sleep(50L);
+            } while (removed > 0 && plugin.isEnabled());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            plugin.getLogger().warning("Transaction retention failed: " + e.getMessage());
+        }
+        if (total > 0) plugin.getLogger().info("Rolled up " + total + " old token transactions.");
+    }
+
+    // Online schema migration: one short chunk per run, so the tables stay usable in between
+    private void migrateSchema() {
+        try {
+            if (storage.migrateSchema(migrationChunk)) {
+                if (!migrationStarted) plugin.getLogger().info("Migrating the token tables to the current layout in the background...");
+                migrationStarted = true;
+                return;
+            }
+            if (migrationStarted) plugin.getLogger().info("Token table migration finished, the old *_v1 tables can be dropped.");
+            BukkitTask task = migrationTask;
+            if (task != null) task.cancel();
+        } catch (Exception e) {
+            plugin.getLogger().warning("Token table migration failed, retrying: " + e.getMessage());
+        }
+    }
+
+    // Every stored balance, for exports. Cached changes are flushed first so the export includes them
+    public void exportBalances(BiConsumer<UUID, Long> action) throws Exception {
+        flushDirty();
+        storage.forEachBalance(action);
+    }
+
+    // Every transaction row, oldest first, for exports. Rows still queued in the log writer are left out
+    public void exportHistory(Consumer<TransactionRecord> action) throws Exception {
+        storage.forEachTransaction(action);
+    }
+
+    // Overwrite balances from an import. Players who are not cached are written as one batch; cached
+    // ones one at a time while their flushes are held off, then their entries take over the new value
+    // with any change made in the meantime on top. Other servers are told either way, and every
+    // change is logged and reported like any other, with the reason "Import"
+    public void importBalances(Map<UUID, Long> balances) throws Exception {
+        Map<UUID, Long> uncached = new HashMap<>();
+        for (Map.Entry<UUID, Long> e : balances.entrySet()) {
+            UUID uuid = e.getKey();
+            noteAccount(uuid);
+            BalanceCache.Entry entry = cache.get(uuid);
+            if (entry == null) {
+                uncached.put(uuid, e.getValue());
+                continue;
+            }
+            synchronized (entry.io) {
+                storage.set(uuid, Math.max(0L, e.getValue()));
+                VersionedBalance stored = storage.loadVersioned(uuid);
+                long before, after;
+                synchronized (entry) {
+                    if (!entry.isLive()) continue;
+                    // Also for backends without versions, which rebase() would skip
+                    before = entry.rebase(stored.balance, stored.version);
+                    after = entry.getBalance();
+                }
+                if (before != after) recordChange(uuid, after - before, before, after, IMPORT_REASON);
+            }
+            publish(uuid);
+        }
+        if (uncached.isEmpty()) return;
+        // One batch read for the log rows and listeners, accounts without a row had 0
+        Map<UUID, Long> previous = storage.loadBatch(uncached.keySet());
+        storage.setBalances(uncached);
+        for (Map.Entry<UUID, Long> e : uncached.entrySet()) {
+            UUID uuid = e.getKey();
+            long before = previous.getOrDefault(uuid, 0L);
+            long after = Math.max(0L, e.getValue());
+            publish(uuid);
+            if (before != after) recordChange(uuid, after - before, before, after, IMPORT_REASON);
+        }
+    }
+
+    // Add imported rows to the transaction log in one batch; they get new ids
+    public void importHistory(List<TransactionRecord> records) throws Exception {
+        storage.appendLog(records);
+    }
+
+    // Public method for rewarding players with tokens
+    public CompletableFuture<Long> rewardPlayer(UUID uuid, long amount, String reason) {
+        return add(uuid, amount, reason);
+    }
+    
+    // Multiplier resolved for this player on join or the last permission refresh, 1.0 when offline
+    public double getTokenMultiplier(UUID uuid) {
+        return multipliers.get(uuid);
+    }
+
+    // Replace the configured tiers and re-check everyone online. Main thread only
+    public void setMultiplierTiers(List<MultiplierTiers.Tier> tiers) {
+        multipliers.setTiers(tiers);
+        registerPermissions();
+        refreshMultipliers();
+    }
+
+    // Re-check one player's multiplier permissions. Main thread only
+    public double refreshMultiplier(Player player) {
+        return multipliers.resolve(player);
+    }
+
+    // Picks up permission changes made while players are online. Main thread only
+    public void refreshMultipliers() {
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            multipliers.resolve(player);
+        }
+    }
+
+    // Seconds between permission re-checks of online players, call before init()
+    public void setMultiplierRefreshInterval(long seconds) {
+        this.multiplierRefreshTicks = Math.max(1L, seconds) * 20L;
+    }
+    
+    // Format number with commas, e.g. 1,234,567. Thread-safe, unlike a shared NumberFormat
+    public String formatNumber(long number) {
+        if (number > -1000 && number < 1000) return Long.toString(number);
+        char[] digits = Long.toString(number).toCharArray();
+        int start = number < 0 ? 1 : 0;
+        int count = digits.length - start;
+        char[] out = new char[digits.length + (count - 1) / 3];
+        int o = out.length;
+        for (int i = digits.length - 1, n = 0; i >= start; i--, n++) {
+            if (n > 0 && n % 3 == 0) out[--o] = ',';
+            out[--o] = digits[i];
+        }
+        if (start == 1) out[--o] = '-';
+        return new String(out);
+    }
+
+    // Write every pending cached change to the tokens table
+    public void flushDirty() {
+        // Changes journaled from here on go to a new segment, the older ones can go once flushed
+        rotateJournal();
+        expireLogins();
+        for (UUID uuid : cache.dirtyKeys()) {
+            flush(uuid);
+        }
+        cache.evictOffline();
+        try {
+            storage.sync();
+        } catch (Exception e) {
+            plugin.getLogger().warning("Failed to sync token storage: " + e.getMessage());
+        }
+        if (journal != null && journal.getId() != null) {
+            try {
+                journal.sync();
+                journal.release(cache.unflushedFloor());
+            } catch (Exception e) {
+                plugin.getLogger().warning("Failed to clean up the token journal: " + e.getMessage());
+            }
+        }
+    }
+
+    private void rotateJournal() {
+        if (journal == null || journal.getId() == null) return;
+        try {
+            journal.rotate();
+        } catch (Exception e) {
+            plugin.getLogger().warning("Failed to rotate the token journal: " + e.getMessage());
+        }
+    }
+
+    // Write the cached balance back if the row is still at the version it was loaded from. If another
+    // server wrote it in between, add our change on top of theirs and take over the result
+    private void flush(UUID uuid) {
+        long start = System.nanoTime();
+        try {
+            BalanceCache.Entry entry = cache.getRaw(uuid);
+            if (entry == null) return;
+            synchronized (entry.io) {
+                long delta, balance, expected, seq;
+                synchronized (entry) {
+                    delta = entry.takePendingDelta();
+                    balance = entry.getBalance();
+                    expected = entry.getVersion();
+                    seq = entry.getJournalSeq();
+                }
+                if (delta == 0L) {
+                    // Changes that cancelled out, nothing to replay either
+                    entry.markFlushed(seq);
+                    return;
+                }
+                // The journal seq is stored with the balance, so a replay after a crash skips it
+                UUID journalId = journal != null ? journal.getId() : null;
+                try {
+                    long version = journalId != null
+                            ? storage.compareAndSet(uuid, expected, balance, journalId, seq)
+                            : storage.compareAndSet(uuid, expected, balance);
+                    if (version >= 0) {
+                        entry.setVersion(version);
+                        entry.markFlushed(seq);
+                        if (channel != null) channel.publish(uuid, version);
+                        return;
+                    }
+                    if (journalId != null) {
+                        storage.applyDelta(uuid, delta, journalId, seq);
+                    } else {
+                        storage.applyDelta(uuid, delta);
+                    }
+                    entry.markFlushed(seq);
+                    publish(uuid);
+                } catch (Exception e) {
+                    entry.restorePendingDelta(delta);
+                    storageFailed();
+                    plugin.getLogger().warning("Failed to flush balance for " + uuid + ": " + e.getMessage());
+                    return;
+                }
+                try {
+                    rebase(uuid, entry);
+                } catch (Exception e) {
+                    plugin.getLogger().warning("Failed to refresh balance for " + uuid + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            flushTimer.record(start);
+        }
+    }
+
+    // Another server wrote this balance; refresh it if it is cached and older than that write
+    private void onRemoteChange(UUID uuid, long version) {
+        noteAccount(uuid);
+        inflightLoads.remove(uuid);
+        BalanceCache.Entry entry = cache.get(uuid);
+        if (entry == null || (version >= 0 && version <= entry.getVersion())) return;
+        // Refused when the pool is full; the entry then catches up on its next flush
+        tryExecute(workers, () -> {
+            synchronized (entry.io) {
+                try {
+                    rebase(uuid, entry);
+                } catch (Exception e) {
+                    plugin.getLogger().warning("Failed to refresh balance for " + uuid + ": " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    // Reload the row and put the changes not flushed yet on top of it; caller holds entry.io
+    private void rebase(UUID uuid, BalanceCache.Entry entry) throws Exception {
+        VersionedBalance stored = storage.loadVersioned(uuid);
+        long before, after;
+        synchronized (entry) {
+            if (!entry.isLive() || stored.version == entry.getVersion()) return;
+            before = entry.rebase(stored.balance, stored.version);
+            after = entry.getBalance();
+        }
+        if (before != after) notifyListeners(uuid, before, after, null);
+    }
+
+    // Let other servers refresh their copy after a write that bypassed the cache. Reads that started
+    // before the write are not shared with callers arriving after it
+    private void publish(UUID uuid) {
+        inflightLoads.remove(uuid);
+        if (channel != null) channel.publish(uuid, -1L);
+    }
+
+    public void shutdown() {
+        if (startRetryTask != null) startRetryTask.cancel();
+        if (flushTask != null) flushTask.cancel();
+        if (leaderboardTask != null) leaderboardTask.cancel();
+        if (multiplierTask != null) multiplierTask.cancel();
+        if (coalesceTask != null) coalesceTask.cancel();
+        if (retentionTask != null) retentionTask.cancel();
+        if (migrationTask != null) migrationTask.cancel();
+        if (accountTask != null) accountTask.cancel();
+        if (workers != null) {
+            workers.shutdown();
+            try {
+                if (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+                    plugin.getLogger().warning("Timed out waiting for pending token operations.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushDirty();
+        if (journal != null) {
+            try {
+                // Whatever could not be written stays in the journal for the next start
+                journal.close(cache.unflushedFloor() == Long.MAX_VALUE);
+            } catch (Exception e) {
+                plugin.getLogger().warning("Failed to close the token journal: " + e.getMessage());
+            }
+        }
+        if (coalescer != null) coalescer.flushAll();
+        if (channel != null) channel.close();
+        if (logWriter != null) logWriter.shutdown();
+        if (feed != null) feed.shutdown();
+        storage.close();
+    }
+    
+    // Worker pool all CompletableFuture APIs run on; tasks wait there until storage is ready
+    Executor getAsyncExecutor() {
+        return afterStartup;
+    }
+
+    // Run on the workers once storage is ready. Fails the future instead of blocking when the pool
+    // is full and the caller is the main thread
+    <T> CompletableFuture<T> supplyAsync(Supplier<T> action) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            afterStartup.execute(() -> {
+                try {
+                    future.complete(action.get());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    // Fire and forget; false if the task was refused because the pool is full
+    private boolean tryExecute(Executor executor, Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    // Queue a row for the transaction log, written in batches by the log writer, and tell listeners.
+    // Deposits may be merged with the player's previous ones by the coalescer
+    private void recordChange(UUID uuid, long amount, long balanceBefore, long balanceAfter, String reason) {
+        long start = System.nanoTime();
+        try {
+            if (amount <= 0 || !coalescer.add(uuid, amount, balanceBefore, balanceAfter, reason)) {
+                coalescer.flush(uuid);
+                logWriter.append(new TransactionRecord(uuid, amount, balanceBefore, balanceAfter, reason, System.currentTimeMillis()));
+            }
+            notifyListeners(uuid, balanceBefore, balanceAfter, reason);
+        } finally {
+            logTransactionTimer.record(start);
+        }
+    }
+
+    private void notifyListeners(UUID uuid, long balanceBefore, long balanceAfter, String reason) {
+        for (BalanceListener listener : listeners) {
+            try {
+                listener.onBalanceChange(uuid, balanceBefore, balanceAfter);
+            } catch (Exception e) {
+                plugin.getLogger().warning("Balance listener failed: " + e.getMessage());
+            }
+        }
+        feed.publish(uuid, balanceBefore, balanceAfter, reason);
+    }
+
+    // Register the permissions of the configured tiers that no other plugin declared
+    private void registerPermissions() {
+        for (MultiplierTiers.Tier tier : multipliers.getTiers()) {
+            try {
+                if (Bukkit.getPluginManager().getPermission(tier.permission) == null) {
+                    Bukkit.getPluginManager().addPermission(new Permission(tier.permission, tier.multiplier + "x token multiplier", PermissionDefault.FALSE));
+                }
+            } catch (Exception e) {
+                // Permissions might already be registered
+                plugin.getLogger().info("Permission " + tier.permission + " may already be registered.");
+            }
+        }
+    }
 }
\ No newline at end of file
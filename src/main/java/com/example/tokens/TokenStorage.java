@@ -0,0 +1,163 @@
+package com.example.tokens;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+// Where balances and the transaction log live. TokenService only talks to this,
+// so the same service (and VaultEco on top of it) runs against any backend.
+// Implementations must be safe to call from several worker threads at once.
+public interface TokenStorage {
+    // Open connections and create the schema
+    void init() throws Exception;
+
+    // Balance of one account, 0 if it has none
+    long load(UUID uuid) throws Exception;
+
+    // Balances of several accounts in one go; accounts without a row are left out
+    Map<UUID, Long> loadBatch(Collection<UUID> uuids) throws Exception;
+
+    // Balance with the version of its row; accounts without a row are (0, 0).
+    // Backends that are never shared between servers do not need versions
+    default VersionedBalance loadVersioned(UUID uuid) throws Exception {
+        return new VersionedBalance(load(uuid), 0L);
+    }
+
+    // loadVersioned for several accounts; accounts without a row are left out
+    default Map<UUID, VersionedBalance> loadVersionedBatch(Collection<UUID> uuids) throws Exception {
+        Map<UUID, VersionedBalance> result = new HashMap<>();
+        for (Map.Entry<UUID, Long> e : loadBatch(uuids).entrySet()) {
+            result.put(e.getKey(), new VersionedBalance(e.getValue(), 0L));
+        }
+        return result;
+    }
+
+    // Current row versions of several accounts, for polling changes made by other servers
+    default Map<UUID, Long> loadVersions(Collection<UUID> uuids) throws Exception {
+        return Collections.emptyMap();
+    }
+
+    // Overwrite the balance only if the row is still at expectedVersion. Returns the new version,
+    // or -1 if someone else wrote the row in between
+    default long compareAndSet(UUID uuid, long expectedVersion, long balance) throws Exception {
+        set(uuid, balance);
+        return expectedVersion + 1;
+    }
+
+    // Journal aware writes, see WriteAheadJournal. seq is the newest journal record the write covers and
+    // is kept per player in the same transaction, so replaying the journal skips what already arrived.
+    // Backends with their own durability write without it
+    default long compareAndSet(UUID uuid, long expectedVersion, long balance, UUID journal, long seq) throws Exception {
+        return compareAndSet(uuid, expectedVersion, balance);
+    }
+
+    // Returns the balance before, like applyDelta; does nothing if seq was applied already
+    default long applyDelta(UUID uuid, long delta, UUID journal, long seq) throws Exception {
+        return applyDelta(uuid, delta);
+    }
+
+    // Newest seq of the journal applied per player; players without one are left out
+    default Map<UUID, Long> loadJournalMarks(UUID journal, Collection<UUID> uuids) throws Exception {
+        return Collections.emptyMap();
+    }
+
+    // Forget the seqs of a journal that has been replayed and retired
+    default void dropJournalMarks(UUID journal) throws Exception {
+    }
+
+    // Add delta to the balance, never going below 0. Returns the balance before the change,
+    // the new balance is max(0, before + delta)
+    long applyDelta(UUID uuid, long delta) throws Exception;
+
+    // applyDelta for several accounts at once, as one transaction where the backend has them.
+    // Returns the balance before the change for every account in deltas
+    default Map<UUID, Long> applyDeltas(Map<UUID, Long> deltas) throws Exception {
+        Map<UUID, Long> before = new HashMap<>();
+        for (Map.Entry<UUID, Long> e : deltas.entrySet()) {
+            before.put(e.getKey(), applyDelta(e.getKey(), e.getValue()));
+        }
+        return before;
+    }
+
+    // Take amount only if the balance covers it. Returns the remaining balance, or -1 if it did not
+    long withdraw(UUID uuid, long amount) throws Exception;
+
+    // Overwrite the balance. Returns the balance before the change
+    long set(UUID uuid, long balance) throws Exception;
+
+    void appendLog(List<TransactionRecord> batch) throws Exception;
+
+    // A player's transactions with an id below beforeId, newest first, at most limit rows.
+    // Throws UnsupportedOperationException for backends whose log cannot be queried
+    default List<TransactionRecord> loadHistory(UUID uuid, long beforeId, int limit) throws Exception {
+        throw new UnsupportedOperationException("Transaction history is not available with this storage");
+    }
+
+    // Fold at most chunk transaction rows older than cutoffMillis into daily totals per player and
+    // reason, then delete them. Returns the number of rows removed, 0 once nothing is left
+    default int rollupHistory(long cutoffMillis, int chunk) throws Exception {
+        return 0;
+    }
+
+    // Move the next chunk of data left in an older table layout to the current one, for backends
+    // that upgrade while the server keeps running. Returns false once nothing is left to move
+    default boolean migrateSchema(int chunk) throws Exception {
+        return false;
+    }
+
+    // Remember the current name of a player; names are looked up case-insensitively
+    void saveName(String name, UUID uuid) throws Exception;
+
+    // UUID last seen with this name, or null
+    UUID lookupName(String name) throws Exception;
+
+    // Last known names of several players; players without one are left out
+    Map<UUID, String> loadNames(Collection<UUID> uuids) throws Exception;
+
+    // Highest balances first, at most limit accounts, as an ordered map
+    Map<UUID, Long> loadTop(int limit) throws Exception;
+
+    // Whether the player has a row, i.e. ever had a balance
+    default boolean exists(UUID uuid) throws Exception {
+        return loadBatch(Collections.singleton(uuid)).containsKey(uuid);
+    }
+
+    // Number of accounts, an estimate is fine. Together with forEachAccount this builds the
+    // AccountFilter; backends that answer lookups from memory anyway leave both unsupported
+    default long countAccounts() throws Exception {
+        throw new UnsupportedOperationException("Account scans are not needed with this storage");
+    }
+
+    // Call action with the UUID of every account, in no particular order
+    default void forEachAccount(Consumer<UUID> action) throws Exception {
+        throw new UnsupportedOperationException("Account scans are not needed with this storage");
+    }
+
+    // Call action with every balance, reading a bounded number of rows at a time
+    default void forEachBalance(BiConsumer<UUID, Long> action) throws Exception {
+        throw new UnsupportedOperationException("Exporting balances is not available with this storage");
+    }
+
+    // Call action with every transaction row, oldest first, reading a bounded number of rows at a time
+    default void forEachTransaction(Consumer<TransactionRecord> action) throws Exception {
+        throw new UnsupportedOperationException("Exporting transactions is not available with this storage");
+    }
+
+    // Overwrite several balances, as one batch where the backend has them
+    default void setBalances(Map<UUID, Long> balances) throws Exception {
+        for (Map.Entry<UUID, Long> e : balances.entrySet()) {
+            set(e.getKey(), e.getValue());
+        }
+    }
+
+    // Make written changes durable, called after every background flush
+    default void sync() throws Exception {
+    }
+
+    void close();
+}
@@ -1,145 +1,436 @@
-package com.example.tokens;
-
-import org.bukkit.command.Command;
-import org.bukkit.command.CommandSender;
-import org.bukkit.entity.Player;
-import org.bukkit.plugin.java.JavaPlugin;
-
-import java.util.UUID;
-import java.util.concurrent.CompletableFuture;
-
-public class TokensPlugin extends JavaPlugin {
-    private TokenService tokenService;
-    private VaultEco vaultEco;
-
-    @Override
-    public void onEnable() {
-        saveDefaultConfig();
-
-        getLogger().info("TokensPlugin enabling...");
-
-        // Init token service (DB)
-        tokenService = new TokenService(this,
-                getConfig().getBoolean("MySQL.Use"),
-                getConfig().getString("MySQL.Host"),
-                getConfig().getString("MySQL.Port"),
-                getConfig().getString("MySQL.Database"),
-                getConfig().getString("MySQL.User"),
-                getConfig().getString("MySQL.Password")
-        );
-
-        tokenService.init();
-
-        // Register Vault economy implementation
-        vaultEco = new VaultEco(tokenService, getConfig().getString("Currency.name","Tokens"));
-        // Register service with Bukkit so Vault can find it
-        getServer().getServicesManager().register(net.milkbowl.vault.economy.Economy.class, vaultEco, this, org.bukkit.plugin.ServicePriority.High);
-
-        // Register PlaceholderAPI expansion
-        // Only uncomment this section if PlaceholderAPI is installed on the server
-        if (getServer().getPluginManager().getPlugin("PlaceholderAPI") != null) {
-            new TokenPlaceholderExpansion(this).register();
-            getLogger().info("TokensPlugin registered placeholders with PlaceholderAPI.");
-        }
-
-        getLogger().info("TokensPlugin enabled and hooked into Vault.");
-    }
-
-    @Override
-    public void onDisable() {
-        getLogger().info("TokensPlugin disabling...");
-        tokenService.shutdown();
-    }
-
-    public TokenService getTokenService(){ return tokenService; }
-    
-    @Override
-    public boolean onCommand(CommandSender sender, Command cmd, String label, String[] args) {
-        if (cmd.getName().equalsIgnoreCase("tokbalance")) {
-            if (!(sender instanceof Player)) {
-                sender.sendMessage("Only players can check their token balance!");
-                return true;
-            }
-            
-            Player player = (Player) sender;
-            UUID playerId = player.getUniqueId();
-            
-            CompletableFuture<Long> balanceFuture = tokenService.getBalance(playerId);
-            balanceFuture.thenAccept(balance -> {
-                double multiplier = tokenService.getTokenMultiplier(playerId);
-                String formattedBalance = tokenService.formatNumber(balance);
-                player.sendMessage("Your token balance: " + formattedBalance);
-                if (multiplier > 1.0) {
-                    player.sendMessage("You have a " + multiplier + "x token multiplier!");
-                }
-            }).exceptionally(throwable -> {
-                player.sendMessage("Error retrieving your balance!");
-                getLogger().warning("Error getting balance for player " + player.getName() + ": " + throwable.getMessage());
-                return null;
-            });
-            
-            return true;
-        } else if (cmd.getName().equalsIgnoreCase("givetokens")) {
-            if (!sender.hasPermission("tokens.reward")) {
-                sender.sendMessage("You don't have permission to use this command!");
-                return true;
-            }
-            
-            if (args.length < 2) {
-                sender.sendMessage("Usage: /givetokens <player> <amount> [reason]");
-                return true;
-            }
-            
-            Player target = getServer().getPlayer(args[0]);
-            if (target == null) {
-                sender.sendMessage("Player not found!");
-                return true;
-            }
-            
-            try {
-                long amount = Long.parseLong(args[1]);
-                String reason = "Manual reward";
-                if (args.length > 2) {
-                    reason = String.join(" ", java.util.Arrays.copyOfRange(args, 2, args.length));
-                }
-                
-                CompletableFuture<Long> rewardFuture = tokenService.rewardPlayer(target.getUniqueId(), amount, reason);
-                rewardFuture.thenAccept(newBalance -> {
-                    String formattedAmount = tokenService.formatNumber(amount);
-                    String formattedBalance = tokenService.formatNumber(newBalance);
-                    sender.sendMessage("Successfully rewarded " + target.getName() + " with " + formattedAmount + " tokens. New balance: " + formattedBalance);
-                    target.sendMessage("You've been rewarded with " + formattedAmount + " tokens! Your new balance: " + formattedBalance);
-                }).exceptionally(throwable -> {
-                    sender.sendMessage("Error rewarding tokens: " + throwable.getMessage());
-                    getLogger().warning("Error rewarding tokens to player " + target.getName() + ": " + throwable.getMessage());
-                    return null;
-                });
-            } catch (NumberFormatException e) {
-                sender.sendMessage("Invalid amount! Please enter a valid number.");
-            }
-            
-            return true;
-        } else if (cmd.getName().equalsIgnoreCase("token") || cmd.getName().equalsIgnoreCase("tokens")) {
-            if (!(sender instanceof Player)) {
-                sender.sendMessage("Only players can check their token balance!");
-                return true;
-            }
-            
-            Player player = (Player) sender;
-            UUID playerId = player.getUniqueId();
-            
-            CompletableFuture<Long> balanceFuture = tokenService.getBalance(playerId);
-            balanceFuture.thenAccept(balance -> {
-                String formattedBalance = tokenService.formatNumber(balance);
-                player.sendMessage("Your token balance: " + formattedBalance);
-            }).exceptionally(throwable -> {
-                player.sendMessage("Error retrieving your balance!");
-                getLogger().warning("Error getting balance for player " + player.getName() + ": " + throwable.getMessage());
-                return null;
-            });
-            
-            return true;
-        }
-        return false;
-    }
+package com.example.tokens;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+public class TokensPlugin extends JavaPlugin {
+    private TokenService tokenService;
+    private VaultEco vaultEco;
+    private TokenEconomyApi api;
+    private BalanceTransfer transfer;
+
+    @Override
+    public void onEnable() {
+        saveDefaultConfig();
+
+        getLogger().info("TokensPlugin enabling...");
+
+        // Init token service (DB)
+        TokenStorage storage;
+        if (getConfig().getBoolean("MySQL.Use")) {
+            storage = new MySQLStorage(
+                    getConfig().getString("MySQL.Host"),
+                    getConfig().getString("MySQL.Port"),
+                    getConfig().getString("MySQL.Database"),
+                    getConfig().getString("MySQL.User"),
+                    getConfig().getString("MySQL.Password"),
+                    getConfig().getInt("Pool.Connections", 4),
+                    getConfig().getInt("MySQL.ConnectTimeout", 5) * 1000,
+                    getConfig().getInt("MySQL.SocketTimeout", 5) * 1000
+            );
+        } else {
+            // Local ledger in the plugin folder for single-server setups
+            storage = new FileStorage(getDataFolder().toPath().resolve("ledger"),
+                    getConfig().getLong("File.CompactSize", 8192) * 1024L, getLogger());
+        }
+        tokenService = new TokenService(this, storage);
+
+        configureService(this, tokenService, storage, getConfig(), getDataFolder().toPath());
+        tokenService.init();
+        transfer = new BalanceTransfer(tokenService, getLogger());
+        loadMultipliers();
+
+        // Keep balances of online players in memory
+        getServer().getPluginManager().registerEvents(new TokenListener(tokenService), this);
+        List<UUID> online = new ArrayList<>();
+        for (Player player : getServer().getOnlinePlayers()) {
+            online.add(player.getUniqueId());
+            tokenService.rememberName(player.getName(), player.getUniqueId());
+        }
+        if (!online.isEmpty()) {
+            // Runs once storage has started
+            tokenService.getAsyncExecutor().execute(() -> tokenService.preload(online));
+        }
+
+        // Register Vault economy implementation
+        vaultEco = new VaultEco(tokenService, getConfig().getString("Currency.name","Tokens"));
+        // Register service with Bukkit so Vault can find it
+        getServer().getServicesManager().register(net.milkbowl.vault.economy.Economy.class, vaultEco, this, org.bukkit.plugin.ServicePriority.High);
+
+        // Non-blocking API for integrations that can use futures instead of Vault
+        api = new TokenEconomyProvider(this, tokenService);
+        getServer().getServicesManager().register(TokenEconomyApi.class, api, this, org.bukkit.plugin.ServicePriority.Normal);
+
+        // Register PlaceholderAPI expansion
+        // Only uncomment this section if PlaceholderAPI is installed on the server
+        if (getServer().getPluginManager().getPlugin("PlaceholderAPI") != null) {
+            new TokenPlaceholderExpansion(this).register();
+            getLogger().info("TokensPlugin registered placeholders with PlaceholderAPI.");
+        }
+
+        // Dump the stats to a JSON file for external monitoring
+        long exportSeconds = getConfig().getLong("Metrics.ExportInterval", 0);
+        if (exportSeconds > 0) {
+            Path exportFile = getDataFolder().toPath().resolve(getConfig().getString("Metrics.ExportFile", "metrics.json"));
+            getServer().getScheduler().runTaskTimerAsynchronously(this, () -> {
+                try {
+                    tokenService.getMetrics().export(exportFile);
+                } catch (IOException e) {
+                    getLogger().warning("Failed to export token stats: " + e.getMessage());
+                }
+            }, exportSeconds * 20L, exportSeconds * 20L);
+        }
+
+        getLogger().info("TokensPlugin enabled and hooked into Vault.");
+    }
+
+    @Override
+    public void onDisable() {
+        getLogger().info("TokensPlugin disabling...");
+        tokenService.shutdown();
+    }
+
+    public TokenService getTokenService(){ return tokenService; }
+
+    public TokenEconomyApi getApi(){ return api; }
+
+    // Applies the service settings of config.yml, call before init(). Shared with the benchmarks,
+    // so they measure the configuration a server actually runs
+    public static void configureService(Plugin plugin, TokenService service, TokenStorage storage, ConfigurationSection config, Path dataFolder) {
+        service.setFlushInterval(config.getLong("Cache.FlushInterval", 5));
+        service.setNameCacheSize(config.getInt("Cache.NameCacheSize", 10000));
+        service.setLeaderboardSettings(
+                config.getInt("Leaderboard.Size", 100),
+                config.getLong("Leaderboard.RefreshInterval", 300)
+        );
+        service.setPoolSettings(
+                config.getInt("Pool.Threads", 4),
+                config.getInt("Pool.QueueSize", 1000)
+        );
+        service.setLogSettings(
+                config.getInt("Log.QueueSize", 10000),
+                config.getInt("Log.BatchSize", 500),
+                config.getLong("Log.FlushInterval", 1000)
+        );
+        service.setRetention(config.getInt("Log.RetentionDays", 0), config.getInt("Log.RetentionChunk", 1000));
+        service.setMigrationChunk(config.getInt("MySQL.MigrationChunk", 1000));
+        service.setEventSettings(
+                config.getBoolean("Events.BukkitEvents", true),
+                config.getLong("Events.BatchInterval", 250),
+                config.getInt("Events.QueueSize", 10000)
+        );
+        service.setCoalesceWindow(config.getLong("Log.CoalesceWindow", 0));
+        service.setInvalidationChannel(createInvalidationChannel(plugin, service, storage, config));
+        // Both only pay off with MySQL, the file ledger keeps every balance in memory already
+        service.setAccountFilter(config.getBoolean("MySQL.Use") && useAccountFilter(config),
+                config.getLong("Cache.AccountFilterRebuild", 3600));
+        if (config.getBoolean("MySQL.Use") && config.getBoolean("Cache.Journal", true)) {
+            service.setJournal(new WriteAheadJournal(dataFolder.resolve("journal"),
+                    config.getBoolean("Cache.JournalFsync", true), config.getLong("Cache.JournalSyncInterval", 50), plugin.getLogger()));
+        }
+        service.setMultiplierRefreshInterval(config.getLong("Multipliers.RefreshInterval", 60));
+    }
+
+    // How cached balances learn about writes from other servers sharing the MySQL database
+    private static InvalidationChannel createInvalidationChannel(Plugin plugin, TokenService service, TokenStorage storage, ConfigurationSection config) {
+        if (!config.getBoolean("MySQL.Use")) return null;
+        String mode = config.getString("Sync.Mode", "none");
+        if (mode.equalsIgnoreCase("bungee")) {
+            return new BungeeInvalidationChannel(plugin);
+        }
+        if (mode.equalsIgnoreCase("polling")) {
+            return new PollingInvalidationChannel(plugin, storage, service::cachedPlayers, config.getLong("Sync.PollInterval", 5));
+        }
+        if (!mode.equalsIgnoreCase("none")) {
+            plugin.getLogger().warning("Unknown Sync.Mode " + mode + ", balances will not be synced between servers.");
+        }
+        return null;
+    }
+
+    // auto turns the account filter on only with Sync.Mode bungee, the one mode that tells this server
+    // about accounts created on others right away. Otherwise they would read as empty until the next rebuild
+    private static boolean useAccountFilter(ConfigurationSection config) {
+        String setting = config.getString("Cache.AccountFilter", "auto");
+        if (setting.equalsIgnoreCase("auto")) return config.getString("Sync.Mode", "none").equalsIgnoreCase("bungee");
+        return Boolean.parseBoolean(setting);
+    }
+
+    // Multiplier tiers from the Multipliers.Tiers section of config.yml
+    private void loadMultipliers() {
+        List<MultiplierTiers.Tier> tiers = new ArrayList<>();
+        ConfigurationSection section = getConfig().getConfigurationSection("Multipliers.Tiers");
+        if (section != null) {
+            for (String key : section.getKeys(false)) {
+                String permission = section.getString(key + ".Permission");
+                double multiplier = section.getDouble(key + ".Multiplier", 1.0);
+                if (permission == null || multiplier <= 0) {
+                    getLogger().warning("Ignoring multiplier tier " + key + ", it needs a Permission and a positive Multiplier.");
+                    continue;
+                }
+                tiers.add(new MultiplierTiers.Tier(permission, multiplier));
+            }
+        }
+        tokenService.setMultiplierTiers(tiers);
+    }
+    
+    // /tokens export <balances|history> [file] and /tokens import <balances|history> <file>, with files in
+    // plugins/TokensPlugin/transfers. The format follows the extension, .csv or .ndjson
+    private boolean onTransferCommand(CommandSender sender, String[] args) {
+        if (!sender.hasPermission("tokens.transfer")) {
+            sender.sendMessage("You don't have permission to use this command!");
+            return true;
+        }
+        boolean export = args[0].equalsIgnoreCase("export");
+        BalanceTransfer.Kind kind = null;
+        if (args.length > 1 && args[1].equalsIgnoreCase("balances")) kind = BalanceTransfer.Kind.BALANCES;
+        if (args.length > 1 && args[1].equalsIgnoreCase("history")) kind = BalanceTransfer.Kind.HISTORY;
+        if (kind == null || (!export && args.length < 3)) {
+            sender.sendMessage(export ? "Usage: /tokens export <balances|history> [file.csv|file.ndjson]"
+                    : "Usage: /tokens import <balances|history> <file.csv|file.ndjson>");
+            return true;
+        }
+        String name = args.length > 2 ? args[2]
+                : args[1].toLowerCase(Locale.ROOT) + "-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".csv";
+        // Only plain file names, so the command cannot reach outside the transfers folder
+        if (name.contains("/") || name.contains("\\") || name.startsWith(".") || BalanceTransfer.Format.of(name) == null) {
+            sender.sendMessage("Use a plain file name ending in .csv or .ndjson.");
+            return true;
+        }
+        if (!tokenService.isReady()) {
+            sender.sendMessage("Token storage is still loading, try again in a moment.");
+            return true;
+        }
+        Path file = getDataFolder().toPath().resolve("transfers").resolve(name);
+        try {
+            Files.createDirectories(file.getParent());
+        } catch (IOException e) {
+            sender.sendMessage("Could not create the transfers folder: " + e.getMessage());
+            return true;
+        }
+        if (!export && !Files.isRegularFile(file)) {
+            sender.sendMessage("No file " + name + " in plugins/" + getName() + "/transfers.");
+            return true;
+        }
+        // Progress comes from the transfer thread, messages are sent from the main thread
+        BalanceTransfer.Progress progress = message -> getServer().getScheduler().runTask(this, () -> sender.sendMessage(message));
+        boolean started = export ? transfer.startExport(kind, file, progress) : transfer.startImport(kind, file, progress);
+        sender.sendMessage(started ? (export ? "Exporting " : "Importing ") + args[1].toLowerCase(Locale.ROOT) + (export ? " to " : " from ") + name + "..."
+                : "Another import or export is still running.");
+        return true;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command cmd, String label, String[] args) {
+        if (cmd.getName().equalsIgnoreCase("tokbalance")) {
+            if (!(sender instanceof Player)) {
+                sender.sendMessage("Only players can check their token balance!");
+                return true;
+            }
+            
+            Player player = (Player) sender;
+            UUID playerId = player.getUniqueId();
+            
+            CompletableFuture<Long> balanceFuture = tokenService.getBalance(playerId);
+            balanceFuture.thenAccept(balance -> {
+                double multiplier = tokenService.getTokenMultiplier(playerId);
+                String formattedBalance = tokenService.formatNumber(balance);
+                player.sendMessage("Your token balance: " + formattedBalance);
+                if (multiplier > 1.0) {
+                    player.sendMessage("You have a " + multiplier + "x token multiplier!");
+                }
+            }).exceptionally(throwable -> {
+                player.sendMessage("Error retrieving your balance!");
+                getLogger().warning("Error getting balance for player " + player.getName() + ": " + throwable.getMessage());
+                return null;
+            });
+            
+            return true;
+        } else if (cmd.getName().equalsIgnoreCase("givetokens")) {
+            if (!sender.hasPermission("tokens.reward")) {
+                sender.sendMessage("You don't have permission to use this command!");
+                return true;
+            }
+            
+            if (args.length < 2) {
+                sender.sendMessage("Usage: /givetokens <player> <amount> [reason]");
+                return true;
+            }
+            
+            Player target = getServer().getPlayer(args[0]);
+            if (target == null) {
+                sender.sendMessage("Player not found!");
+                return true;
+            }
+            
+            try {
+                long amount = Long.parseLong(args[1]);
+                String reason = "Manual reward";
+                if (args.length > 2) {
+                    reason = String.join(" ", java.util.Arrays.copyOfRange(args, 2, args.length));
+                }
+                
+                CompletableFuture<Long> rewardFuture = tokenService.rewardPlayer(target.getUniqueId(), amount, reason);
+                rewardFuture.thenAccept(newBalance -> {
+                    if (newBalance < 0) {
+                        sender.sendMessage("Error rewarding tokens, check the console for details.");
+                        return;
+                    }
+                    String formattedAmount = tokenService.formatNumber(amount);
+                    String formattedBalance = tokenService.formatNumber(newBalance);
+                    sender.sendMessage("Successfully rewarded " + target.getName() + " with " + formattedAmount + " tokens. New balance: " + formattedBalance);
+                    target.sendMessage("You've been rewarded with " + formattedAmount + " tokens! Your new balance: " + formattedBalance);
+                }).exceptionally(throwable -> {
+                    sender.sendMessage("Error rewarding tokens: " + throwable.getMessage());
+                    getLogger().warning("Error rewarding tokens to player " + target.getName() + ": " + throwable.getMessage());
+                    return null;
+                });
+            } catch (NumberFormatException e) {
+                sender.sendMessage("Invalid amount! Please enter a valid number.");
+            }
+            
+            return true;
+        } else if (cmd.getName().equalsIgnoreCase("token") || cmd.getName().equalsIgnoreCase("tokens")) {
+            if (args.length > 0 && args[0].equalsIgnoreCase("reload")) {
+                if (!sender.hasPermission("tokens.reload")) {
+                    sender.sendMessage("You don't have permission to use this command!");
+                    return true;
+                }
+                reloadConfig();
+                loadMultipliers();
+                sender.sendMessage("Token multipliers reloaded.");
+                return true;
+            }
+
+            if (args.length > 0 && args[0].equalsIgnoreCase("stats")) {
+                if (!sender.hasPermission("tokens.stats")) {
+                    sender.sendMessage("You don't have permission to use this command!");
+                    return true;
+                }
+                TokenMetrics metrics = tokenService.getMetrics();
+                if (args.length > 1 && args[1].equalsIgnoreCase("reset")) {
+                    metrics.reset();
+                    sender.sendMessage("Token stats reset.");
+                    return true;
+                }
+                long seconds = (System.currentTimeMillis() - metrics.getSince()) / 1000L;
+                sender.sendMessage("Token stats for the last " + seconds + "s:");
+                sender.sendMessage("storage: " + tokenService.getState().name().toLowerCase(Locale.ROOT));
+                double hitRate = metrics.ratio("cache.hits", "cache.misses");
+                if (hitRate >= 0) {
+                    sender.sendMessage(String.format(Locale.ROOT, "cache hit rate: %.1f%%", hitRate * 100));
+                }
+                long filterBytes = tokenService.getAccountFilterBytes();
+                if (filterBytes > 0) {
+                    sender.sendMessage("account filter: " + filterBytes / 1024 + " KB");
+                }
+                for (String line : metrics.describe()) {
+                    sender.sendMessage(line);
+                }
+                return true;
+            }
+
+            if (args.length > 0 && (args[0].equalsIgnoreCase("export") || args[0].equalsIgnoreCase("import"))) {
+                return onTransferCommand(sender, args);
+            }
+
+            if (args.length > 0 && args[0].equalsIgnoreCase("history")) {
+                if (!(sender instanceof Player)) {
+                    sender.sendMessage("Only players can view their token history!");
+                    return true;
+                }
+                int page = 1;
+                if (args.length > 1) {
+                    try {
+                        page = Math.max(1, Integer.parseInt(args[1]));
+                    } catch (NumberFormatException e) {
+                        sender.sendMessage("Usage: /tokens history [page]");
+                        return true;
+                    }
+                }
+                int shownPage = page;
+                tokenService.getHistory(((Player) sender).getUniqueId(), page, 10).whenComplete((rows, error) -> {
+                    if (error != null) {
+                        Throwable cause = error.getCause() != null ? error.getCause() : error;
+                        if (cause instanceof TokenService.PageNotReachedException) {
+                            sender.sendMessage("Pages are read in order, use /tokens history "
+                                    + ((TokenService.PageNotReachedException) cause).nextPage + " next.");
+                            return;
+                        }
+                        sender.sendMessage(cause instanceof UnsupportedOperationException
+                                ? "Token history is only available with MySQL storage."
+                                : "Could not load your token history.");
+                        return;
+                    }
+                    if (rows.isEmpty()) {
+                        sender.sendMessage(shownPage == 1 ? "You have no token transactions yet." : "No more transactions.");
+                        return;
+                    }
+                    SimpleDateFormat date = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+                    sender.sendMessage("Token history, page " + shownPage + ":");
+                    for (TransactionRecord row : rows) {
+                        String amount = (row.amount >= 0 ? "+" : "") + tokenService.formatNumber(row.amount);
+                        sender.sendMessage(date.format(new Date(row.timestamp)) + " " + amount + " -> " + tokenService.formatNumber(row.balanceAfter)
+                                + (row.reason != null && !row.reason.isEmpty() ? " (" + row.reason + ")" : ""));
+                    }
+                    if (rows.size() == 10) sender.sendMessage("Next page: /tokens history " + (shownPage + 1));
+                });
+                return true;
+            }
+
+            if (args.length > 0 && args[0].equalsIgnoreCase("top")) {
+                if (!tokenService.isReady()) {
+                    sender.sendMessage("Tokens are still loading, try again in a moment.");
+                    return true;
+                }
+                List<Leaderboard.Entry> top = tokenService.getLeaderboard().top(10);
+                if (top.isEmpty()) {
+                    sender.sendMessage("Nobody has any tokens yet!");
+                    return true;
+                }
+                sender.sendMessage("Top token balances:");
+                int rank = 1;
+                for (Leaderboard.Entry entry : top) {
+                    String name = tokenService.displayName(entry.uuid);
+                    sender.sendMessage(rank++ + ". " + (name != null ? name : entry.uuid.toString()) + " - " + tokenService.formatNumber(entry.balance));
+                }
+                return true;
+            }
+
+            if (!(sender instanceof Player)) {
+                sender.sendMessage("Only players can check their token balance!");
+                return true;
+            }
+            
+            Player player = (Player) sender;
+            UUID playerId = player.getUniqueId();
+            
+            CompletableFuture<Long> balanceFuture = tokenService.getBalance(playerId);
+            balanceFuture.thenAccept(balance -> {
+                String formattedBalance = tokenService.formatNumber(balance);
+                player.sendMessage("Your token balance: " + formattedBalance);
+            }).exceptionally(throwable -> {
+                player.sendMessage("Error retrieving your balance!");
+                getLogger().warning("Error getting balance for player " + player.getName() + ": " + throwable.getMessage());
+                return null;
+            });
+            
+            return true;
+        }
+        return false;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,135 @@
+package com.example.tokens;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+// Queues transaction log rows and writes them in batches from a background thread.
+// A batch is written once it is full or the oldest row has waited flushIntervalMillis.
+// The caller never writes: when the queue is full, e.g. during a database outage, the row is
+// dropped and counted, since balances themselves do not depend on the log.
+public class TransactionLogWriter {
+    public interface Sink {
+        void write(List<TransactionRecord> batch) throws Exception;
+    }
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long DROP_WARNING_MILLIS = 60000L;
+
+    private final Sink sink;
+    private final Logger logger;
+    private final BlockingQueue<TransactionRecord> queue;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final Thread thread;
+    private final LongAdder dropped;
+    private volatile long lastDropWarning;
+    private volatile boolean running = true;
+    // Set once shutdown() wrote the last rows, nothing is taken after that
+    private volatile boolean stopped;
+
+    public TransactionLogWriter(Sink sink, Logger logger, int queueSize, int batchSize, long flushIntervalMillis, LongAdder dropped) {
+        this.sink = sink;
+        this.logger = logger;
+        this.dropped = dropped;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMillis = Math.max(1L, flushIntervalMillis);
+        this.thread = new Thread(this::run, "TokensPlugin-LogWriter");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    // Rows appended while shutdown() drains the queue are still written, later ones are dropped
+    public void append(TransactionRecord record) {
+        if (!stopped && queue.offer(record)) return;
+        dropped.increment();
+        long now = System.currentTimeMillis();
+        if (now - lastDropWarning >= DROP_WARNING_MILLIS) {
+            lastDropWarning = now;
+            logger.warning(stopped ? "Transaction log writer is stopped, dropping log entries."
+                    : "Transaction log queue is full, dropping log entries (" + dropped.sum() + " so far).");
+        }
+    }
+
+    public int pending() {
+        return queue.size();
+    }
+
+    private void run() {
+        List<TransactionRecord> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                TransactionRecord first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                long deadline = System.currentTimeMillis() + flushIntervalMillis;
+                while (batch.size() < batchSize && running) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long wait = deadline - System.currentTimeMillis();
+                    if (batch.size() >= batchSize || wait <= 0) break;
+                    TransactionRecord next = queue.poll(wait, TimeUnit.MILLISECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                write(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                // Woken up by shutdown(), whatever is left gets drained there
+                write(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<TransactionRecord> batch) {
+        if (batch.isEmpty()) return;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                sink.write(batch);
+                return;
+            } catch (Exception e) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    logger.severe("Dropped " + batch.size() + " transaction log entries: " + e.getMessage());
+                    return;
+                }
+                logger.warning("Failed to write transaction log, retrying: " + e.getMessage());
+                try {
+                    Thread.sleep(500L * attempt);
+                } catch (InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    // Stop the background thread and write everything still queued
+    public void shutdown() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(10000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<TransactionRecord> batch = new ArrayList<>(batchSize);
+        drain(batch);
+        stopped = true;
+        // Rows offered while the flag was going up
+        drain(batch);
+    }
+
+    private void drain(List<TransactionRecord> batch) {
+        while (queue.drainTo(batch, batchSize) > 0) {
+            write(batch);
+            batch.clear();
+        }
+    }
+}
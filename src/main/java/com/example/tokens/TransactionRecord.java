@@ -0,0 +1,29 @@
+package com.example.tokens;
+
+import java.util.UUID;
+
+// One row of the token_transactions table
+public final class TransactionRecord {
+    // Row id once stored, 0 for rows that have not been written yet
+    public final long id;
+    public final UUID uuid;
+    public final long amount;
+    public final long balanceBefore;
+    public final long balanceAfter;
+    public final String reason;
+    public final long timestamp;
+
+    public TransactionRecord(UUID uuid, long amount, long balanceBefore, long balanceAfter, String reason, long timestamp) {
+        this(0L, uuid, amount, balanceBefore, balanceAfter, reason, timestamp);
+    }
+
+    public TransactionRecord(long id, UUID uuid, long amount, long balanceBefore, long balanceAfter, String reason, long timestamp) {
+        this.id = id;
+        this.uuid = uuid;
+        this.amount = amount;
+        this.balanceBefore = balanceBefore;
+        this.balanceAfter = balanceAfter;
+        this.reason = reason;
+        this.timestamp = timestamp;
+    }
+}
@@ -1,340 +1,397 @@
-package com.example.tokens;
-
-import net.milkbowl.vault.economy.AbstractEconomy;
-import net.milkbowl.vault.economy.EconomyResponse;
-import net.milkbowl.vault.economy.EconomyResponse.ResponseType;
-import org.bukkit.OfflinePlayer;
-
-import java.text.NumberFormat;
-import java.util.Collections;
-import java.util.List;
-import java.util.UUID;
-
-public class VaultEco extends AbstractEconomy {
-    private final TokenService service;
-    private final String currencyName;
-    private final NumberFormat formatter;
-
-    public VaultEco(TokenService service, String currencyName) {
-        this.service = service;
-        this.currencyName = currencyName;
-        this.formatter = NumberFormat.getInstance(); // For formatting currency values
-    }
-
-    /* ---------- Basic info ---------- */
-    @Override
-    public String currencyNamePlural() {
-        return currencyName + "s";
-    }
-
-    @Override
-    public String currencyNameSingular() {
-        return currencyName;
-    }
-    
-    @Override
-    public String getName() {
-        return "TokensPlugin";
-    }
-    
-    @Override
-    public boolean isEnabled() {
-        return true;
-    }
-
-    @Override
-    public boolean hasBankSupport() {
-        return false;
-    }
-
-    @Override
-    public int fractionalDigits() {
-        return 0;
-    }
-
-    @Override
-    public String format(double amount) {
-        // amount treated as whole tokens
-        long v = (long) Math.floor(amount);
-        return service.formatNumber(v);
-    }
-
-    @Override
-    public boolean hasAccount(String playerName) {
-        return true;
-    }
-
-    @Override
-    public boolean hasAccount(OfflinePlayer player) {
-        return true;
-    }
-    
-    public boolean hasAccount(String playerName, String worldName) {
-        return true;
-    }
-    
-    public boolean hasAccount(OfflinePlayer player, String worldName) {
-        return true;
-    }
-
-    @Override
-    public boolean has(String playerName, double amount) {
-        // sync check; Vault may call this synchronously. Keep fast.
-        try {
-            UUID u = java.util.UUID.nameUUIDFromBytes(playerName.getBytes());
-            return getBalanceSync(u) >= (long) Math.ceil(amount);
-        } catch (Exception e) {
-            return false;
-        }
-    }
-
-    @Override
-    public boolean has(OfflinePlayer player, double amount) {
-        return getBalanceSync(player.getUniqueId()) >= (long) Math.ceil(amount);
-    }
-
-    public boolean has(String playerName, String worldName, double amount) {
-        return has(playerName, amount);
-    }
-
-    public boolean has(OfflinePlayer player, String worldName, double amount) {
-        return has(player, amount);
-    }
-
-    private long getBalanceSync(UUID uuid) {
-        return service.getBalanceSync(uuid);
-    }
-
-    @Override
-    public double getBalance(String playerName) {
-        try {
-            UUID u = java.util.UUID.nameUUIDFromBytes(playerName.getBytes());
-            return (double) getBalanceSync(u);
-        } catch (Exception e) {
-            return 0d;
-        }
-    }
-
-    @Override
-    public double getBalance(OfflinePlayer player) {
-        return (double) getBalanceSync(player.getUniqueId());
-    }
-
-    public double getBalance(String playerName, String worldName) {
-        return getBalance(playerName);
-    }
-
-    public double getBalance(OfflinePlayer player, String worldName) {
-        return getBalance(player);
-    }
-
-    /* ---------- Deposits/Withdrawals ---------- */
-    // We now allow withdrawal operations to support plugins like Cosmetics
-
-    @Override
-    public EconomyResponse withdrawPlayer(String playerName, double amount) {
-        try {
-            UUID uuid = java.util.UUID.nameUUIDFromBytes(playerName.getBytes());
-            long actualAmount = (long) Math.ceil(amount);
-            boolean success = service.removeSync(uuid, actualAmount, "Withdrawal by " + playerName);
-            if (success) {
-                long balance = getBalanceSync(uuid);
-                return new EconomyResponse(actualAmount, balance, ResponseType.SUCCESS, "Withdrawal successful");
-            } else {
-                long balance = getBalanceSync(uuid);
-                return new EconomyResponse(0, balance, ResponseType.FAILURE, "Insufficient funds");
-            }
-        } catch (Exception e) {
-            return new EconomyResponse(0, 0, ResponseType.FAILURE, "Withdrawal error: " + e.getMessage());
-        }
-    }
-
-    @Override
-    public EconomyResponse withdrawPlayer(OfflinePlayer player, double amount) {
-        try {
-            UUID uuid = player.getUniqueId();
-            long actualAmount = (long) Math.ceil(amount);
-            boolean success = service.removeSync(uuid, actualAmount, "Withdrawal by " + player.getName());
-            if (success) {
-                long balance = getBalanceSync(uuid);
-                return new EconomyResponse(actualAmount, balance, ResponseType.SUCCESS, "Withdrawal successful");
-            } else {
-                long balance = getBalanceSync(uuid);
-                return new EconomyResponse(0, balance, ResponseType.FAILURE, "Insufficient funds");
-            }
-        } catch (Exception e) {
-            return new EconomyResponse(0, 0, ResponseType.FAILURE, "Withdrawal error: " + e.getMessage());
-        }
-    }
-    
-    public EconomyResponse withdrawPlayer(String playerName, String worldName, double amount) {
-        return withdrawPlayer(playerName, amount);
-    }
-    
-    public EconomyResponse withdrawPlayer(OfflinePlayer player, String worldName, double amount) {
-        return withdrawPlayer(player, amount);
-    }
-
-    @Override
-    public EconomyResponse depositPlayer(String playerName, double amount) {
-        try {
-            UUID uuid = java.util.UUID.nameUUIDFromBytes(playerName.getBytes());
-            double multiplier = service.getTokenMultiplier(uuid);
-            long actualAmount = (long) (amount * multiplier);
-            boolean success = service.removeSync(uuid, -actualAmount, "Deposit by " + playerName);
-            if (success) {
-                long balance = getBalanceSync(uuid);
-                return new EconomyResponse(actualAmount, balance, ResponseType.SUCCESS, "Deposit successful with " + multiplier + "x multiplier");
-            } else {
-                long balance = getBalanceSync(uuid);
-                return new EconomyResponse(0, balance, ResponseType.FAILURE, "Deposit failed");
-            }
-        } catch (Exception e) {
-            return new EconomyResponse(0, 0, ResponseType.FAILURE, "Deposit error: " + e.getMessage());
-        }
-    }
-
-    @Override
-    public EconomyResponse depositPlayer(OfflinePlayer player, double amount) {
-        try {
-            UUID uuid = player.getUniqueId();
-            double multiplier = service.getTokenMultiplier(uuid);
-            long actualAmount = (long) (amount * multiplier);
-            boolean success = service.removeSync(uuid, -actualAmount, "Deposit by " + player.getName());
-            if (success) {
-                long balance = getBalanceSync(uuid);
-                return new EconomyResponse(actualAmount, balance, ResponseType.SUCCESS, "Deposit successful with " + multiplier + "x multiplier");
-            } else {
-                long balance = getBalanceSync(uuid);
-                return new EconomyResponse(0, balance, ResponseType.FAILURE, "Deposit failed");
-            }
-        } catch (Exception e) {
-            return new EconomyResponse(0, 0, ResponseType.FAILURE, "Deposit error: " + e.getMessage());
-        }
-    }
-    
-    public EconomyResponse depositPlayer(String playerName, String worldName, double amount) {
-        return depositPlayer(playerName, amount);
-    }
-    
-    public EconomyResponse depositPlayer(OfflinePlayer player, String worldName, double amount) {
-        return depositPlayer(player, amount);
-    }
-
-    /* ---------- Banks (not supported) ---------- */
-    @Override
-    public EconomyResponse createBank(String name, String player) {
-        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, "Banks not supported");
-    }
-
-    @Override
-    public EconomyResponse createBank(String name, OfflinePlayer player) {
-        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, "Banks not supported");
-    }
-
-    @Override
-    public EconomyResponse deleteBank(String name) {
-        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, "Banks not supported");
-    }
-
-    @Override
-    public EconomyResponse bankBalance(String name) {
-        return new EconomyResponse(0, 0, ResponseType.FAILURE, "Banks not supported");
-    }
-
-    @Override
-    public EconomyResponse bankHas(String name, double amount) {
-        return new EconomyResponse(0, 0, ResponseType.FAILURE, "Banks not supported");
-    }
-
-    @Override
-    public EconomyResponse bankWithdraw(String name, double amount) {
-        return new EconomyResponse(0, 0, ResponseType.FAILURE, "Banks not supported");
-    }
-
-    @Override
-    public EconomyResponse bankDeposit(String name, double amount) {
-        return new EconomyResponse(0, 0, ResponseType.FAILURE, "Banks not supported");
-    }
-
-    @Override
-    public EconomyResponse isBankOwner(String name, String playerName) {
-        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, "Banks not supported");
-    }
-
-    @Override
-    public EconomyResponse isBankMember(String name, String playerName) {
-        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, "Banks not supported");
-    }
-    
-    public EconomyResponse isBankOwner(String name, OfflinePlayer player) {
-        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, "Banks not supported");
-    }
-    
-    public EconomyResponse isBankMember(String name, OfflinePlayer player) {
-        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, "Banks not supported");
-    }
-
-    /* ---------- Other ---------- */
-    @Override
-    public boolean createPlayerAccount(String playerName) {
-        return true;
-    }
-
-    @Override
-    public boolean createPlayerAccount(OfflinePlayer player) {
-        return true;
-    }
-
-    public boolean createPlayerAccount(String playerName, String worldName) {
-        return true;
-    }
-
-    public boolean createPlayerAccount(OfflinePlayer player, String worldName) {
-        return true;
-    }
-    
-    // Additional methods that may be required by some Vault versions
-    @Override
-    public List<String> getBanks() {
-        return Collections.emptyList();
-    }
-    
-    public EconomyResponse createBank(String name, String player, String worldName) {
-        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, "Banks not supported");
-    }
-    
-    public EconomyResponse createBank(String name, OfflinePlayer player, String worldName) {
-        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, "Banks not supported");
-    }
-    
-    public EconomyResponse deleteBank(String name, String worldName) {
-        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, "Banks not supported");
-    }
-    
-    public EconomyResponse bankBalance(String name, String worldName) {
-        return new EconomyResponse(0, 0, ResponseType.FAILURE, "Banks not supported");
-    }
-    
-    public EconomyResponse bankHas(String name, String worldName, double amount) {
-        return new EconomyResponse(0, 0, ResponseType.FAILURE, "Banks not supported");
-    }
-    
-    public EconomyResponse bankWithdraw(String name, String worldName, double amount) {
-        return new EconomyResponse(0, 0, ResponseType.FAILURE, "Banks not supported");
-    }
-    
-    public EconomyResponse bankDeposit(String name, String worldName, double amount) {
-        return new EconomyResponse(0, 0, ResponseType.FAILURE, "Banks not supported");
-    }
-    
-    public EconomyResponse isBankOwner(String name, String playerName, String worldName) {
-        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, "Banks not supported");
-    }
-    
-    public EconomyResponse isBankMember(String name, String playerName, String worldName) {
-        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, "Banks not supported");
-    }
-
-    // The rest of the Economy interface methods for your Vault version may need to be implemented. Add them as no-op or unsupported responses similarly.
-}
+package com.example.tokens;
+
+import net.milkbowl.vault.economy.AbstractEconomy;
+import net.milkbowl.vault.economy.EconomyResponse;
+import net.milkbowl.vault.economy.EconomyResponse.ResponseType;
+import org.bukkit.OfflinePlayer;
+
+import java.text.NumberFormat;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+public class VaultEco extends AbstractEconomy {
+    private final TokenService service;
+    private final String currencyName;
+    private final NumberFormat formatter;
+    private final TokenMetrics.Timer hasTimer, getBalanceTimer, withdrawTimer, depositTimer;
+
+    public VaultEco(TokenService service, String currencyName) {
+        this.service = service;
+        this.currencyName = currencyName;
+        this.formatter = NumberFormat.getInstance(); // For formatting currency values
+        TokenMetrics metrics = service.getMetrics();
+        this.hasTimer = metrics.timer("vault.has");
+        this.getBalanceTimer = metrics.timer("vault.getBalance");
+        this.withdrawTimer = metrics.timer("vault.withdrawPlayer");
+        this.depositTimer = metrics.timer("vault.depositPlayer");
+    }
+
+    /* ---------- Basic info ---------- */
+    @Override
+    public String currencyNamePlural() {
+        return currencyName + "s";
+    }
+
+    @Override
+    public String currencyNameSingular() {
+        return currencyName;
+    }
+    
+    @Override
+    public String getName() {
+        return "TokensPlugin";
+    }
+    
+    // False until token storage has started, or when it failed to
+    @Override
+    public boolean isEnabled() {
+        return service.isReady();
+    }
+
+    @Override
+    public boolean hasBankSupport() {
+        return false;
+    }
+
+    @Override
+    public int fractionalDigits() {
+        return 0;
+    }
+
+    @Override
+    public String format(double amount) {
+        // amount treated as whole tokens
+        long v = (long) Math.floor(amount);
+        return service.formatNumber(v);
+    }
+
+    @Override
+    public boolean hasAccount(String playerName) {
+        UUID u = service.resolveName(playerName);
+        return u != null && service.hasAccount(u);
+    }
+
+    @Override
+    public boolean hasAccount(OfflinePlayer player) {
+        return service.hasAccount(player.getUniqueId());
+    }
+    
+    public boolean hasAccount(String playerName, String worldName) {
+        return hasAccount(playerName);
+    }
+    
+    public boolean hasAccount(OfflinePlayer player, String worldName) {
+        return hasAccount(player);
+    }
+
+    @Override
+    public boolean has(String playerName, double amount) {
+        long start = System.nanoTime();
+        // sync check; Vault may call this synchronously. Keep fast.
+        try {
+            if (!service.awaitReady()) return false;
+            UUID u = service.resolveName(playerName);
+            if (u == null) return amount <= 0;
+            return getBalanceSync(u) >= (long) Math.ceil(amount);
+        } catch (Exception e) {
+            return false;
+        } finally {
+            hasTimer.record(start);
+        }
+    }
+
+    @Override
+    public boolean has(OfflinePlayer player, double amount) {
+        long start = System.nanoTime();
+        try {
+            if (!service.awaitReady()) return false;
+            return getBalanceSync(player.getUniqueId()) >= (long) Math.ceil(amount);
+        } catch (TokenService.StorageUnavailableException e) {
+            // Logged by the service; an unknown balance does not cover anything
+            return false;
+        } finally {
+            hasTimer.record(start);
+        }
+    }
+
+    public boolean has(String playerName, String worldName, double amount) {
+        return has(playerName, amount);
+    }
+
+    public boolean has(OfflinePlayer player, String worldName, double amount) {
+        return has(player, amount);
+    }
+
+    private long getBalanceSync(UUID uuid) {
+        return service.getBalanceSync(uuid);
+    }
+
+    // Vault has no way to report a failed read, so a balance that cannot be read from storage
+    // throws TokenService.StorageUnavailableException instead of reading as 0
+    @Override
+    public double getBalance(String playerName) {
+        long start = System.nanoTime();
+        try {
+            UUID u = service.resolveName(playerName);
+            if (u == null) return 0d;
+            return (double) getBalanceSync(u);
+        } catch (TokenService.StorageUnavailableException e) {
+            throw e;
+        } catch (Exception e) {
+            return 0d;
+        } finally {
+            getBalanceTimer.record(start);
+        }
+    }
+
+    @Override
+    public double getBalance(OfflinePlayer player) {
+        long start = System.nanoTime();
+        try {
+            return (double) getBalanceSync(player.getUniqueId());
+        } finally {
+            getBalanceTimer.record(start);
+        }
+    }
+
+    public double getBalance(String playerName, String worldName) {
+        return getBalance(playerName);
+    }
+
+    public double getBalance(OfflinePlayer player, String worldName) {
+        return getBalance(player);
+    }
+
+    /* ---------- Deposits/Withdrawals ---------- */
+    // We now allow withdrawal operations to support plugins like Cosmetics
+
+    @Override
+    public EconomyResponse withdrawPlayer(String playerName, double amount) {
+        long start = System.nanoTime();
+        try {
+            if (!service.awaitReady()) return notReady();
+            UUID uuid = service.resolveName(playerName);
+            if (uuid == null) return new EconomyResponse(0, 0, ResponseType.FAILURE, "Unknown player " + playerName);
+            long actualAmount = (long) Math.ceil(amount);
+            long remaining = service.withdrawSync(uuid, actualAmount, "Withdrawal by " + playerName);
+            if (remaining >= 0) {
+                return new EconomyResponse(actualAmount, remaining, ResponseType.SUCCESS, "Withdrawal successful");
+            } else if (remaining == TokenService.WITHDRAW_FAILED) {
+                return new EconomyResponse(0, 0, ResponseType.FAILURE, "Token storage is not available");
+            } else {
+                long balance = getBalanceSync(uuid);
+                return new EconomyResponse(0, balance, ResponseType.FAILURE, "Insufficient funds");
+            }
+        } catch (Exception e) {
+            return new EconomyResponse(0, 0, ResponseType.FAILURE, "Withdrawal error: " + e.getMessage());
+        } finally {
+            withdrawTimer.record(start);
+        }
+    }
+
+    @Override
+    public EconomyResponse withdrawPlayer(OfflinePlayer player, double amount) {
+        long start = System.nanoTime();
+        try {
+            UUID uuid = player.getUniqueId();
+            if (!service.awaitReady()) return notReady();
+            long actualAmount = (long) Math.ceil(amount);
+            long remaining = service.withdrawSync(uuid, actualAmount, "Withdrawal by " + player.getName());
+            if (remaining >= 0) {
+                return new EconomyResponse(actualAmount, remaining, ResponseType.SUCCESS, "Withdrawal successful");
+            } else if (remaining == TokenService.WITHDRAW_FAILED) {
+                return new EconomyResponse(0, 0, ResponseType.FAILURE, "Token storage is not available");
+            } else {
+                long balance = getBalanceSync(uuid);
+                return new EconomyResponse(0, balance, ResponseType.FAILURE, "Insufficient funds");
+            }
+        } catch (Exception e) {
+            return new EconomyResponse(0, 0, ResponseType.FAILURE, "Withdrawal error: " + e.getMessage());
+        } finally {
+            withdrawTimer.record(start);
+        }
+    }
+    
+    public EconomyResponse withdrawPlayer(String playerName, String worldName, double amount) {
+        return withdrawPlayer(playerName, amount);
+    }
+    
+    public EconomyResponse withdrawPlayer(OfflinePlayer player, String worldName, double amount) {
+        return withdrawPlayer(player, amount);
+    }
+
+    @Override
+    public EconomyResponse depositPlayer(String playerName, double amount) {
+        long start = System.nanoTime();
+        try {
+            if (!service.awaitReady()) return notReady();
+            UUID uuid = service.resolveName(playerName);
+            if (uuid == null) return new EconomyResponse(0, 0, ResponseType.FAILURE, "Unknown player " + playerName);
+            double multiplier = service.getTokenMultiplier(uuid);
+            long actualAmount = (long) (amount * multiplier);
+            long balance = service.addSync(uuid, actualAmount, "Deposit by " + playerName);
+            if (balance >= 0) {
+                return new EconomyResponse(actualAmount, balance, ResponseType.SUCCESS, "Deposit successful with " + multiplier + "x multiplier");
+            } else {
+                return new EconomyResponse(0, getBalanceSync(uuid), ResponseType.FAILURE, "Deposit failed");
+            }
+        } catch (Exception e) {
+            return new EconomyResponse(0, 0, ResponseType.FAILURE, "Deposit error: " + e.getMessage());
+        } finally {
+            depositTimer.record(start);
+        }
+    }
+
+    @Override
+    public EconomyResponse depositPlayer(OfflinePlayer player, double amount) {
+        long start = System.nanoTime();
+        try {
+            UUID uuid = player.getUniqueId();
+            if (!service.awaitReady()) return notReady();
+            double multiplier = service.getTokenMultiplier(uuid);
+            long actualAmount = (long) (amount * multiplier);
+            long balance = service.addSync(uuid, actualAmount, "Deposit by " + player.getName());
+            if (balance >= 0) {
+                return new EconomyResponse(actualAmount, balance, ResponseType.SUCCESS, "Deposit successful with " + multiplier + "x multiplier");
+            } else {
+                return new EconomyResponse(0, getBalanceSync(uuid), ResponseType.FAILURE, "Deposit failed");
+            }
+        } catch (Exception e) {
+            return new EconomyResponse(0, 0, ResponseType.FAILURE, "Deposit error: " + e.getMessage());
+        } finally {
+            depositTimer.record(start);
+        }
+    }
+    
+    public EconomyResponse depositPlayer(String playerName, String worldName, double amount) {
+        return depositPlayer(playerName, amount);
+    }
+    
+    public EconomyResponse depositPlayer(OfflinePlayer player, String worldName, double amount) {
+        return depositPlayer(player, amount);
+    }
+
+    // Answer for calls that need storage while it is still starting, or after it failed to start
+    private EconomyResponse notReady() {
+        String message = service.getState() == TokenService.State.FAILED ? "Token storage is unavailable" : "Tokens are still loading";
+        return new EconomyResponse(0, 0, ResponseType.FAILURE, message);
+    }
+
+    /* ---------- Banks (not supported) ---------- */
+    @Override
+    public EconomyResponse createBank(String name, String player) {
+        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, "Banks not supported");
+    }
+
+    @Override
+    public EconomyResponse createBank(String name, OfflinePlayer player) {
+        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, "Banks not supported");
+    }
+
+    @Override
+    public EconomyResponse deleteBank(String name) {
+        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, "Banks not supported");
+    }
+
+    @Override
+    public EconomyResponse bankBalance(String name) {
+        return new EconomyResponse(0, 0, ResponseType.FAILURE, "Banks not supported");
+    }
+
+    @Override
+    public EconomyResponse bankHas(String name, double amount) {
+        return new EconomyResponse(0, 0, ResponseType.FAILURE, "Banks not supported");
+    }
+
+    @Override
+    public EconomyResponse bankWithdraw(String name, double amount) {
+        return new EconomyResponse(0, 0, ResponseType.FAILURE, "Banks not supported");
+    }
+
+    @Override
+    public EconomyResponse bankDeposit(String name, double amount) {
+        return new EconomyResponse(0, 0, ResponseType.FAILURE, "Banks not supported");
+    }
+
+    @Override
+    public EconomyResponse isBankOwner(String name, String playerName) {
+        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, "Banks not supported");
+    }
+
+    @Override
+    public EconomyResponse isBankMember(String name, String playerName) {
+        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, "Banks not supported");
+    }
+    
+    public EconomyResponse isBankOwner(String name, OfflinePlayer player) {
+        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, "Banks not supported");
+    }
+    
+    public EconomyResponse isBankMember(String name, OfflinePlayer player) {
+        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, "Banks not supported");
+    }
+
+    /* ---------- Other ---------- */
+    @Override
+    public boolean createPlayerAccount(String playerName) {
+        return true;
+    }
+
+    @Override
+    public boolean createPlayerAccount(OfflinePlayer player) {
+        return true;
+    }
+
+    public boolean createPlayerAccount(String playerName, String worldName) {
+        return true;
+    }
+
+    public boolean createPlayerAccount(OfflinePlayer player, String worldName) {
+        return true;
+    }
+    
+    // Additional methods that may be required by some Vault versions
+    @Override
+    public List<String> getBanks() {
+        return Collections.emptyList();
+    }
+    
+    public EconomyResponse createBank(String name, String player, String worldName) {
+        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, "Banks not supported");
+    }
+    
+    public EconomyResponse createBank(String name, OfflinePlayer player, String worldName) {
+        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, "Banks not supported");
+    }
+    
+    public EconomyResponse deleteBank(String name, String worldName) {
+        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, "Banks not supported");
+    }
+    
+    public EconomyResponse bankBalance(String name, String worldName) {
+        return new EconomyResponse(0, 0, ResponseType.FAILURE, "Banks not supported");
+    }
+    
+    public EconomyResponse bankHas(String name, String worldName, double amount) {
+        return new EconomyResponse(0, 0, ResponseType.FAILURE, "Banks not supported");
+    }
+    
+    public EconomyResponse bankWithdraw(String name, String worldName, double amount) {
+        return new EconomyResponse(0, 0, ResponseType.FAILURE, "Banks not supported");
+    }
+    
+    public EconomyResponse bankDeposit(String name, String worldName, double amount) {
+        return new EconomyResponse(0, 0, ResponseType.FAILURE, "Banks not supported");
+    }
+    
+    public EconomyResponse isBankOwner(String name, String playerName, String worldName) {
+        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, "Banks not supported");
+    }
+    
+    public EconomyResponse isBankMember(String name, String playerName, String worldName) {
+        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, "Banks not supported");
+    }
+
+    // The rest of the Economy interface methods for your Vault version may need to be implemented. Add them as no-op or unsupported responses similarly.
+}
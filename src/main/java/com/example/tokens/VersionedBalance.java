@@ -0,0 +1,13 @@
+package com.example.tokens;
+
+// A stored balance together with the version of its row. The version goes up with every write,
+// so a server can tell whether the row changed since it cached the balance
+public final class VersionedBalance {
+    public final long balance;
+    public final long version;
+
+    public VersionedBalance(long balance, long version) {
+        this.balance = balance;
+        this.version = version;
+    }
+}
@@ -0,0 +1,288 @@
+package com.example.tokens;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+// Local journal of changes to cached balances, written before a change is confirmed so it survives
+// a crash or a database outage. Records are [seq][uuid][delta] with seq counting up within one
+// journal id. Storage keeps the last seq it applied per player, so a replay skips what already
+// made it to the database. Appends go to the newest segment file; TokenService starts a new one
+// before every flush and older segments are deleted once everything in them has been flushed.
+// With fsync on, records are forced to disk in groups every syncIntervalMillis by a journal thread,
+// so a change is confirmed once written and a machine crash can lose up to that window of changes.
+public class WriteAheadJournal implements AutoCloseable {
+    private static final int RECORD_SIZE = 32;
+
+    // Records of a previous run, by player, oldest first
+    public static final class Pending {
+        public final UUID journal;
+        public final Map<UUID, List<long[]>> records;
+        private final List<Path> segments;
+
+        private Pending(UUID journal, Map<UUID, List<long[]>> records, List<Path> segments) {
+            this.journal = journal;
+            this.records = records;
+            this.segments = segments;
+        }
+
+        public boolean isEmpty() {
+            return records.isEmpty();
+        }
+    }
+
+    private static final class Segment {
+        final Path path;
+        final long lastSeq;
+
+        Segment(Path path, long lastSeq) {
+            this.path = path;
+            this.lastSeq = lastSeq;
+        }
+    }
+
+    private final Path directory;
+    private final boolean fsync;
+    private final long syncIntervalMillis;
+    private final Logger logger;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private final Deque<Segment> sealed = new ArrayDeque<>();
+    private UUID id;
+    private long seq;
+    private long segmentIndex;
+    private JournalFile current;
+    private boolean currentEmpty = true;
+    // Written since the last force to disk
+    private boolean unsynced;
+    private ScheduledExecutorService syncer;
+    private volatile boolean syncFailing;
+
+    // fsync false leaves writing to disk to the OS: survives the server process dying, not the machine.
+    // syncIntervalMillis 0 forces every append (or batch) to disk before it returns
+    public WriteAheadJournal(Path directory, boolean fsync, long syncIntervalMillis, Logger logger) {
+        this.directory = directory;
+        this.fsync = fsync;
+        this.syncIntervalMillis = Math.max(0L, syncIntervalMillis);
+        this.logger = logger;
+    }
+
+    // Read what an earlier run left behind. Call once, before start()
+    public synchronized Pending recover() throws IOException {
+        Files.createDirectories(directory);
+        Path idFile = directory.resolve("journal.id");
+        UUID previous = null;
+        if (Files.exists(idFile)) {
+            try {
+                previous = UUID.fromString(new String(Files.readAllBytes(idFile), StandardCharsets.UTF_8).trim());
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unreadable journal id in " + idFile);
+            }
+        }
+        List<Path> segments = segmentFiles();
+        Map<UUID, List<long[]>> records = new HashMap<>();
+        for (Path path : segments) {
+            try (JournalFile file = new JournalFile(path)) {
+                file.replay(buffer -> {
+                    long recordSeq = buffer.getLong();
+                    UUID uuid = new UUID(buffer.getLong(), buffer.getLong());
+                    records.computeIfAbsent(uuid, key -> new ArrayList<>()).add(new long[]{recordSeq, buffer.getLong()});
+                });
+            }
+        }
+        if (!records.isEmpty() && previous == null) throw new IOException("Journal segments without a journal id in " + directory);
+        return new Pending(previous, records, segments);
+    }
+
+    // Throw away what recover() returned, once storage has it, and start a new journal id
+    public synchronized void start(Pending pending) throws IOException {
+        for (Path path : pending.segments) {
+            Files.deleteIfExists(path);
+        }
+        id = UUID.randomUUID();
+        seq = 0L;
+        segmentIndex = 0L;
+        Path idFile = directory.resolve("journal.id");
+        Path temp = directory.resolve("journal.id.tmp");
+        Files.write(temp, id.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, idFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        current = new JournalFile(segmentPath(segmentIndex));
+        currentEmpty = true;
+        if (fsync && syncIntervalMillis > 0 && syncer == null) {
+            syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "Tokens-Journal");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncer.scheduleWithFixedDelay(this::syncWritten, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized UUID getId() {
+        return id;
+    }
+
+    // Journal a change and return its seq. Written on return, forced to disk within syncIntervalMillis
+    public synchronized long append(UUID uuid, long delta) throws IOException {
+        long next = seq + 1;
+        record.clear();
+        record.putLong(next).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).putLong(delta).flip();
+        current.append(record);
+        written();
+        seq = next;
+        return next;
+    }
+
+    // Journal several changes with one write and at most one force. Returns the seq of the first,
+    // the others follow in order
+    public synchronized long appendAll(UUID[] uuids, long[] deltas) throws IOException {
+        ByteBuffer[] records = new ByteBuffer[uuids.length];
+        for (int i = 0; i < uuids.length; i++) {
+            records[i] = ByteBuffer.allocate(RECORD_SIZE);
+            records[i].putLong(seq + 1 + i).putLong(uuids[i].getMostSignificantBits())
+                    .putLong(uuids[i].getLeastSignificantBits()).putLong(deltas[i]).flip();
+        }
+        current.append(records);
+        written();
+        long first = seq + 1;
+        seq += uuids.length;
+        return first;
+    }
+
+    private void written() throws IOException {
+        currentEmpty = false;
+        if (!fsync) return;
+        if (syncIntervalMillis == 0) {
+            current.sync();
+        } else {
+            unsynced = true;
+        }
+    }
+
+    // Journal thread: force what was written since the last round, one force for all of it
+    private void syncWritten() {
+        synchronized (this) {
+            if (!unsynced) return;
+        }
+        try {
+            sync();
+            if (syncFailing) {
+                syncFailing = false;
+                logger.info("Token journal is forced to disk again.");
+            }
+        } catch (IOException e) {
+            if (!syncFailing) {
+                syncFailing = true;
+                logger.warning("Failed to force the token journal to disk: " + e.getMessage());
+            }
+        }
+    }
+
+    // Seal the current segment and continue in a new one, so the old one can go once it is flushed
+    public synchronized void rotate() throws IOException {
+        if (currentEmpty) return;
+        // Closing forces the segment to disk
+        current.close();
+        unsynced = false;
+        sealed.addLast(new Segment(current.getPath(), seq));
+        current = new JournalFile(segmentPath(++segmentIndex));
+        currentEmpty = true;
+    }
+
+    // Delete sealed segments whose records are all below seq, the oldest one that may still be unflushed
+    public synchronized void release(long unflushedFloor) throws IOException {
+        while (!sealed.isEmpty() && sealed.peekFirst().lastSeq < unflushedFloor) {
+            Files.deleteIfExists(sealed.pollFirst().path);
+        }
+    }
+
+    // Force appended records to disk. Outside the journal's lock, appends go on meanwhile
+    public void sync() throws IOException {
+        JournalFile file;
+        synchronized (this) {
+            file = current;
+            unsynced = false;
+        }
+        if (file == null) return;
+        try {
+            file.sync();
+        } catch (IOException e) {
+            synchronized (this) {
+                unsynced = true;
+            }
+            throw e;
+        }
+    }
+
+    // Closing with everything flushed leaves nothing to replay on the next start
+    public void close(boolean flushed) throws IOException {
+        ScheduledExecutorService stopping;
+        synchronized (this) {
+            stopping = syncer;
+            syncer = null;
+        }
+        if (stopping != null) {
+            // Not interrupted: that would close the file under a running force
+            stopping.shutdown();
+            try {
+                stopping.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        closeFiles(flushed);
+    }
+
+    private synchronized void closeFiles(boolean flushed) throws IOException {
+        if (current == null) return;
+        current.close();
+        if (flushed) {
+            for (Segment segment : sealed) {
+                Files.deleteIfExists(segment.path);
+            }
+            sealed.clear();
+            Files.deleteIfExists(current.getPath());
+        }
+        current = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        close(false);
+    }
+
+    private Path segmentPath(long index) {
+        return directory.resolve(String.format("segment-%06d.wal", index));
+    }
+
+    // Segment files in the order they were written
+    private List<Path> segmentFiles() throws IOException {
+        TreeMap<Long, Path> ordered = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*.wal")) {
+            for (Path path : files) {
+                String name = path.getFileName().toString();
+                try {
+                    ordered.put(Long.parseLong(name.substring(8, name.length() - 4)), path);
+                } catch (NumberFormatException ignored) {
+                    // Not one of ours
+                }
+            }
+        }
+        return new ArrayList<>(ordered.values());
+    }
+}